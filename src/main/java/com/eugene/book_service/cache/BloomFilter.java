@@ -0,0 +1,108 @@
+package com.eugene.book_service.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe Bloom filter of strings.
+ * The k bit positions of a value are derived from two halves of a single 64 bits hash
+ * (Kirsch-Mitzenmacher), so a lookup hashes the value only once. A value that was never put may be
+ * reported as present with the configured probability, but a value that was put is always found.
+ */
+public class BloomFilter
+{
+    private final AtomicLongArray words;
+    private final long bitSize;
+    private final int hashCount;
+    
+    private BloomFilter(
+            long bitSize,
+            int hashCount
+    ) {
+        this.words = new AtomicLongArray(Math.toIntExact((bitSize + 63) / 64));
+        this.bitSize = bitSize;
+        this.hashCount = hashCount;
+    }
+    
+    /**
+     * Sizes the filter so it stays under the false positive rate up to the expected number of values.
+     */
+    public static BloomFilter create(
+            long expectedInsertions,
+            double falsePositiveRate
+    ) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The expected insertions must be positive and the false positive rate between 0 and 1.");
+        }
+        long bitSize = Math.max(64,
+                                (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        int hashCount = Math.max(1,
+                                 (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        return new BloomFilter(bitSize,
+                               hashCount);
+    }
+    
+    private static long hash(String value) {
+        // FNV-1a followed by the MurmurHash3 finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    public void put(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            long bit = Math.floorMod(hash1 + (long) i * hash2,
+                                     this.bitSize);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = this.words.get(index);
+            while ((word & mask) == 0 && !this.words.compareAndSet(index,
+                                                                   word,
+                                                                   word | mask)) {
+                word = this.words.get(index);
+            }
+        }
+    }
+    
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            long bit = Math.floorMod(hash1 + (long) i * hash2,
+                                     this.bitSize);
+            if ((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public long sizeInBytes() {
+        return this.words.length() * 8L;
+    }
+    
+    /**
+     * @return the probability that a value never put is reported as present, estimated from the
+     * proportion of bits set.
+     */
+    public double falsePositiveRate() {
+        long bitCount = 0;
+        for (int i = 0; i < this.words.length(); i++) {
+            bitCount += Long.bitCount(this.words.get(i));
+        }
+        return Math.pow((double) bitCount / this.bitSize,
+                        this.hashCount);
+    }
+}
@@ -0,0 +1,50 @@
+package com.eugene.book_service.cache;
+
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.service.BookChangedEvent;
+import com.eugene.book_service.service.BookReviewsChangedEvent;
+import com.eugene.book_service.service.CategoryChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Objects;
+
+/**
+ * Evicts the cached book details once a change is committed. Evicting before the commit would let a
+ * concurrent read put the old state back in the cache until it expires.
+ */
+@Component
+@RequiredArgsConstructor
+public class BookCacheInvalidator
+{
+    private final CacheManager cacheManager;
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        books().evict(event.isbn());
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookReviewsChanged(BookReviewsChangedEvent event) {
+        Cache books = books();
+        event
+                .isbns()
+                .forEach(books::evict);
+    }
+    
+    /**
+     * The books of a category aren't known without a query, and categories rarely change, so the whole
+     * cache is dropped.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCategoryChanged(CategoryChangedEvent event) {
+        books().clear();
+    }
+    
+    private Cache books() {
+        return Objects.requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE));
+    }
+}
@@ -0,0 +1,202 @@
+package com.eugene.book_service.cache;
+
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.service.BookChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter of the ISBNs of the catalog, used to answer the existence checks of unknown books
+ * without a query.
+ * An ISBN is put in the filter as soon as the book is saved and again once it is committed, so it is
+ * never missed by a rebuild running at the same time. A Bloom filter can't remove a value: the
+ * deleted ISBNs stay in it and only cost a query, until they are too many and the filter is rebuilt
+ * in the background, the current filter answering meanwhile.
+ * The filter only sees the books saved by this instance: it is also rebuilt periodically, so a book
+ * created by another instance is reported as missing here for at most the rebuild delay.
+ */
+@Component
+public class BookExistenceFilter
+{
+    private final Logger log = LoggerFactory.getLogger(BookExistenceFilter.class);
+    
+    private final BookReadRepository bookReadRepository;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final double maxDeletedRatio;
+    private final Counter negatives;
+    
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong deletedEntries = new AtomicLong();
+    // Null until the first build, every ISBN may then exist
+    private volatile BloomFilter filter;
+    // Not null while the filter is being rebuilt
+    private volatile BloomFilter building;
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(Thread
+                                                                                        .ofPlatform()
+                                                                                        .name("book-exists-filter-rebuild")
+                                                                                        .daemon()
+                                                                                        .factory());
+    // Set from the scheduling of a rebuild until its end, so a single one runs at a time
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    
+    public BookExistenceFilter(
+            BookReadRepository bookReadRepository,
+            MeterRegistry meterRegistry,
+            @Value("${book.exists-filter.expected-insertions}") long expectedInsertions,
+            @Value("${book.exists-filter.false-positive-rate}") double falsePositiveRate,
+            @Value("${book.exists-filter.max-deleted-ratio}") double maxDeletedRatio
+    ) {
+        this.bookReadRepository = bookReadRepository;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxDeletedRatio = maxDeletedRatio;
+        this.negatives = Counter
+                .builder("book.exists.filter.negatives")
+                .description("Existence checks answered by the Bloom filter without a query")
+                .register(meterRegistry);
+        Gauge
+                .builder("book.exists.filter.size",
+                         this,
+                         f -> (f.filter == null)
+                                 ? 0
+                                 : f.filter.sizeInBytes())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge
+                .builder("book.exists.filter.false.positive.rate",
+                         this,
+                         f -> (f.filter == null)
+                                 ? 1
+                                 : f.filter.falsePositiveRate())
+                .register(meterRegistry);
+        Gauge
+                .builder("book.exists.filter.deleted.entries",
+                         this.deletedEntries,
+                         AtomicLong::get)
+                .register(meterRegistry);
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long bookCount = this.bookReadRepository.countBooks();
+        // Room is left for the books created until the next rebuild
+        BloomFilter newFilter = BloomFilter.create(Math.max(this.expectedInsertions,
+                                                            2 * bookCount),
+                                                   this.falsePositiveRate);
+        this.building = newFilter;
+        long[] count = {0};
+        this.bookReadRepository.streamAllIsbns(isbn -> {
+            newFilter.put(isbn);
+            count[0]++;
+        });
+        this.filter = newFilter;
+        this.building = null;
+        this.entries.set(count[0]);
+        this.deletedEntries.set(0);
+        this.log.info("Book existence filter built with {} ISBNs in {} bytes.",
+                      count[0],
+                      newFilter.sizeInBytes());
+    }
+    
+    /**
+     * @return false when the book doesn't exist for sure, true when it may exist.
+     */
+    public boolean mightContain(String isbn) {
+        BloomFilter current = this.filter;
+        if (current == null || current.mightContain(isbn)) {
+            return true;
+        }
+        this.negatives.increment();
+        return false;
+    }
+    
+    /**
+     * The ISBN is put before the commit, so the book is never reported as missing once committed.
+     */
+    @EventListener
+    public void onBookSaved(BookChangedEvent event) {
+        if (event.previous() == null) {
+            put(event.isbn());
+        }
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        if (event.previous() == null) {
+            put(event.isbn());
+            this.entries.incrementAndGet();
+        } else if (event.current() == null
+                && this.deletedEntries.incrementAndGet() > this.maxDeletedRatio * this.entries.get()) {
+            scheduleRebuild();
+        }
+    }
+    
+    /**
+     * Puts in the filter the books created by the other instances since the last rebuild.
+     */
+    @Scheduled(initialDelayString = "${book.exists-filter.rebuild-delay-ms:60000}",
+               fixedDelayString = "${book.exists-filter.rebuild-delay-ms:60000}")
+    public void refresh() {
+        scheduleRebuild();
+    }
+    
+    /**
+     * The rebuild streams the whole catalog, it runs on its own thread instead of the one of the
+     * request which committed the deletion.
+     */
+    private void scheduleRebuild() {
+        if (!this.rebuildScheduled.compareAndSet(false,
+                                                 true)) {
+            return;
+        }
+        try {
+            this.rebuilder.execute(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    this.log.warn("Failed to rebuild the book existence filter, the current one is kept.",
+                                  e);
+                } finally {
+                    this.rebuildScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.rebuildScheduled.set(false);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        this.rebuilder.shutdown();
+    }
+    
+    private void put(String isbn) {
+        // The rebuild publishes the new filter before clearing the one being built, so reading them in
+        // the opposite order never misses both
+        BloomFilter next = this.building;
+        if (next != null) {
+            next.put(isbn);
+        }
+        BloomFilter current = this.filter;
+        if (current != null) {
+            current.put(isbn);
+        }
+    }
+}
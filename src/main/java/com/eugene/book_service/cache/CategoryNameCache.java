@@ -0,0 +1,83 @@
+package com.eugene.book_service.cache;
+
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.eugene.book_service.service.CategoryChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+
+/**
+ * Names of the categories by ID, so a book is created without loading its categories.
+ * The categories are few and rarely change: they are all loaded on the first use and dropped when
+ * one is renamed or deleted. The IDs missing from the cache, such as the categories created since,
+ * are read from the database. The foreign key of the book categories still rejects a category
+ * deleted by another instance.
+ */
+@Component
+@RequiredArgsConstructor
+public class CategoryNameCache
+{
+    private final CategoryRepository categoryRepository;
+    
+    // Null until loaded, replaced as a whole on each change
+    private volatile Map<Long, String> names;
+    
+    /**
+     * @return the names of the existing categories among the IDs.
+     */
+    public Map<Long, String> findNames(Collection<Long> ids) {
+        Map<Long, String> current = this.names;
+        if (current == null) {
+            current = load();
+        }
+        Map<Long, String> found = new HashMap<>();
+        List<Long> missingIds = new ArrayList<>();
+        for (Long id : ids) {
+            String name = current.get(id);
+            if (name != null) {
+                found.put(id,
+                          name);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            Map<Long, String> loaded = new HashMap<>();
+            this.categoryRepository
+                    .findAllById(missingIds)
+                    .forEach(category -> loaded.put(category.getId(),
+                                                    category.getName()));
+            found.putAll(loaded);
+            add(loaded);
+        }
+        return found;
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onCategoryChanged(CategoryChangedEvent event) {
+        this.names = null;
+    }
+    
+    private synchronized Map<Long, String> load() {
+        if (this.names == null) {
+            Map<Long, String> loaded = new HashMap<>();
+            for (Category category : this.categoryRepository.findAll()) {
+                loaded.put(category.getId(),
+                           category.getName());
+            }
+            this.names = Map.copyOf(loaded);
+        }
+        return this.names;
+    }
+    
+    private synchronized void add(Map<Long, String> loaded) {
+        if (this.names != null && !loaded.isEmpty()) {
+            Map<Long, String> updated = new HashMap<>(this.names);
+            updated.putAll(loaded);
+            this.names = Map.copyOf(updated);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.eugene.book_service.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Local Caffeine caches. Each cache gets its own bounds so a large cache can't evict the
+ * entries of a small one, and they all record their statistics for the metrics endpoint.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig
+{
+    public static final String BOOKS_CACHE = "books";
+    public static final String BOOK_SEARCHES_CACHE = "bookSearches";
+    
+    @Value("${book.cache.books.spec}")
+    private String booksCacheSpec;
+    
+    @Value("${book.cache.book-searches.spec}")
+    private String bookSearchesCacheSpec;
+    
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> caffeineCacheManagerCustomizer() {
+        return cacheManager -> {
+            cacheManager.registerCustomCache(BOOKS_CACHE,
+                                             Caffeine
+                                                     .from(this.booksCacheSpec)
+                                                     .recordStats()
+                                                     .build());
+            cacheManager.registerCustomCache(BOOK_SEARCHES_CACHE,
+                                             Caffeine
+                                                     .from(this.bookSearchesCacheSpec)
+                                                     .recordStats()
+                                                     .build());
+        };
+    }
+}
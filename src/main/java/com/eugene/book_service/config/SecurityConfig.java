@@ -5,6 +5,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -50,6 +51,10 @@ public class SecurityConfig
                         .hasAnyRole(ADMIN,
                                     MODERATOR)
                         
+                        .requestMatchers("/api/book/import/**")
+                        .hasAnyRole(ADMIN,
+                                    MODERATOR)
+                        
                         .requestMatchers("/api/book/update/**")
                         .hasAnyRole(ADMIN,
                                     MODERATOR)
@@ -57,6 +62,15 @@ public class SecurityConfig
                         .requestMatchers("/api/book/delete/**")
                         .hasRole(ADMIN)
                         
+                        .requestMatchers("/api/admin/**")
+                        .hasRole(ADMIN)
+                        
+                        .requestMatchers("/actuator/health")
+                        .permitAll()
+                        
+                        .requestMatchers("/actuator/**")
+                        .hasRole(ADMIN)
+                        
                         .requestMatchers("/swagger-ui/**",
                                          "/v3/api-docs/**",
                                          "/swagger-ui/oauth2-redirect.html")
@@ -94,9 +108,11 @@ public class SecurityConfig
         configuration.setAllowedMethods(List.of("GET",
                                                 "POST",
                                                 "PUT",
+                                                "PATCH",
                                                 "DELETE",
                                                 "OPTIONS"));
         configuration.setAllowedHeaders(List.of("*"));
+        configuration.setExposedHeaders(List.of(HttpHeaders.ETAG));
         configuration.setAllowCredentials(true);
         
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
@@ -2,24 +2,48 @@ package com.eugene.book_service.controller;
 
 import com.eugene.book_service.dto.BookDetailsDto;
 import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookPageDto;
+import com.eugene.book_service.dto.BookPatchDto;
+import com.eugene.book_service.dto.BookSearchResultDto;
+import com.eugene.book_service.service.BookImportReader;
+import com.eugene.book_service.service.BookImportService;
 import com.eugene.book_service.service.BookService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/book")
 @RequiredArgsConstructor
 public class BookController
 {
+    private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    
     private final BookService bookService;
+    private final BookImportService bookImportService;
+    private final ObjectMapper objectMapper;
     
     @Operation(summary = "Create a new book.")
     @PostMapping("/create")
@@ -32,25 +56,149 @@ public class BookController
                 .body(this.bookService.createBook(bookDto));
     }
     
-    @Operation(summary = "Get all books.")
+    @Operation(summary = "Import books from newline delimited JSON or CSV, and stream the outcome of each row as newline delimited JSON.")
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE}, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','MODERATOR')")
+    public ResponseEntity<StreamingResponseBody> importBooks(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream inputStream
+    ) {
+        BookImportReader.Format format = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType)
+                ? BookImportReader.Format.NDJSON
+                : BookImportReader.Format.CSV;
+        Charset charset = Objects.requireNonNullElse(contentType.getCharset(),
+                                                     StandardCharsets.UTF_8);
+        // The rows are read while the outcomes are written, neither is held in memory
+        StreamingResponseBody body = outputStream -> this.bookImportService.importBooks(new InputStreamReader(inputStream,
+                                                                                                              charset),
+                                                                                        format,
+                                                                                        result -> {
+                                                                                            try {
+                                                                                                outputStream.write(this.objectMapper.writeValueAsBytes(result));
+                                                                                                outputStream.write('\n');
+                                                                                            } catch (IOException e) {
+                                                                                                throw new UncheckedIOException(e);
+                                                                                            }
+                                                                                        });
+        
+        return ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+    
+    /**
+     * The books are written to the JSON array as they are read, so the catalog is never held in
+     * memory. The clients should move to the pages or the stream, which they can resume.
+     */
+    @Operation(summary = "Get all books, prefer the pages or the stream.")
     @GetMapping("/all")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<List<BookDetailsDto>> getAllBook() {
-        return ResponseEntity.ok(this.bookService.getAllBook());
+    public ResponseEntity<StreamingResponseBody> getAllBook() {
+        StreamingResponseBody body = outputStream -> {
+            boolean[] first = {true};
+            outputStream.write('[');
+            this.bookService.streamAllBooks(book -> {
+                try {
+                    if (!first[0]) {
+                        outputStream.write(',');
+                    }
+                    first[0] = false;
+                    outputStream.write(this.objectMapper.writeValueAsBytes(book));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            outputStream.write(']');
+        };
+        
+        return ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+    
+    @Operation(summary = "Get a page of books ordered by ISBN.")
+    @GetMapping("/page")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<BookPageDto> getBookPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size
+    ) {
+        return ResponseEntity.ok(this.bookService.getBookPage(cursor,
+                                                              size));
+    }
+    
+    @Operation(summary = "Stream all books as newline delimited JSON.")
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<StreamingResponseBody> streamAllBooks() {
+        StreamingResponseBody body = outputStream -> this.bookService.streamAllBooks(book -> {
+            try {
+                outputStream.write(this.objectMapper.writeValueAsBytes(book));
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        
+        return ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
     
     @Operation(summary = "Get a book ISBN.")
     @GetMapping("/{isbn}")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<BookDetailsDto> getBookByIsbn(@PathVariable String isbn) {
-        return ResponseEntity.ok(this.bookService.getBookByIsbn(isbn));
+    public ResponseEntity<BookDetailsDto> getBookByIsbn(
+            @PathVariable String isbn,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            WebRequest request
+    ) {
+        // The version alone tells if the client's copy is still up to date
+        if (ifNoneMatch != null && request.checkNotModified(VersionTags.toETag(this.bookService.getBookVersion(isbn)))) {
+            return null;
+        }
+        BookDetailsDto book = this.bookService.getBookByIsbn(isbn);
+        return ResponseEntity
+                .ok()
+                .eTag(VersionTags.toETag(book.getVersion()))
+                .body(book);
     }
     
-    @Operation(summary = "Search book by ISBN.")
+    @Operation(summary = "Get the books of a set of ISBNs, the unknown ISBNs are left out.")
+    @PostMapping("/batch")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<Map<String, BookDetailsDto>> getBooksByIsbns(@RequestBody Set<String> isbns) {
+        return ResponseEntity.ok(this.bookService.getBooksByIsbns(isbns));
+    }
+    
+    @Operation(summary = "Search the most relevant books by ISBN, title or author.")
     @PostMapping("/search")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<List<BookDetailsDto>> searchBookByKey(@RequestBody BookDto bookDto) {
-        return ResponseEntity.ok(this.bookService.searchBooksByKey(bookDto));
+    public ResponseEntity<List<BookDetailsDto>> searchBookByKey(
+            @RequestBody BookDto bookDto,
+            @RequestParam(required = false) Integer size
+    ) {
+        BookSearchResultDto result = this.bookService.searchBooksByKey(bookDto,
+                                                                       size);
+        return ResponseEntity
+                .ok()
+                .header(TOTAL_COUNT_HEADER,
+                        String.valueOf(result.getTotalHits()))
+                .body(result.getBooks());
+    }
+    
+    @Operation(summary = "Suggest the titles and authors starting with a prefix.")
+    @GetMapping("/suggest")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<List<String>> suggest(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "10") int size
+    ) {
+        return ResponseEntity.ok(this.bookService.suggest(prefix,
+                                                          size));
     }
     
     @Operation(summary = "Check the existence of a book.")
@@ -60,15 +208,45 @@ public class BookController
         return ResponseEntity.ok(this.bookService.doesBookExists(isbn));
     }
     
+    @Operation(summary = "Check the existence of a set of books.")
+    @PostMapping("/exists")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<Map<String, Boolean>> doBooksExist(@RequestBody Set<String> isbns) {
+        return ResponseEntity.ok(this.bookService.doBooksExist(isbns));
+    }
+    
     @Operation(summary = "Update a book.")
     @PutMapping("/update/{isbn}")
     @PreAuthorize("hasAnyRole('ADMIN','MODERATOR')")
     public ResponseEntity<BookDetailsDto> updateBook(
             @PathVariable String isbn,
-            @Valid @RequestBody BookDto bookDto
+            @Valid @RequestBody BookDto bookDto,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
     ) {
-        return ResponseEntity.ok(this.bookService.updateBook(isbn,
-                                                             bookDto));
+        BookDetailsDto book = this.bookService.updateBook(isbn,
+                                                          bookDto,
+                                                          VersionTags.parseIfMatch(ifMatch));
+        return ResponseEntity
+                .ok()
+                .eTag(VersionTags.toETag(book.getVersion()))
+                .body(book);
+    }
+    
+    @Operation(summary = "Update some fields of a book.")
+    @PatchMapping("/update/{isbn}")
+    @PreAuthorize("hasAnyRole('ADMIN','MODERATOR')")
+    public ResponseEntity<BookDetailsDto> patchBook(
+            @PathVariable String isbn,
+            @Valid @RequestBody BookPatchDto bookPatchDto,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        BookDetailsDto book = this.bookService.patchBook(isbn,
+                                                         bookPatchDto,
+                                                         VersionTags.parseIfMatch(ifMatch));
+        return ResponseEntity
+                .ok()
+                .eTag(VersionTags.toETag(book.getVersion()))
+                .body(book);
     }
     
     @Operation(summary = "Delete a book.")
@@ -80,4 +258,11 @@ public class BookController
                 .noContent()
                 .build();
     }
+    
+    @Operation(summary = "Delete a set of books, and get the ISBNs of the deleted ones.")
+    @PostMapping("/delete/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Set<String>> deleteBooks(@RequestBody Set<String> isbns) {
+        return ResponseEntity.ok(this.bookService.deleteBooks(isbns));
+    }
 }
@@ -6,6 +6,7 @@ import com.eugene.book_service.service.CategoryService;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -43,7 +44,12 @@ public class CategoryController
     @GetMapping("/{idCategory}")
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<Category> getCategoryById(@PathVariable Long idCategory) {
-        return ResponseEntity.ok(this.categoryService.getCategoryById(idCategory));
+        // A matching If-None-Match is answered with a 304 from the ETag
+        Category category = this.categoryService.getCategoryById(idCategory);
+        return ResponseEntity
+                .ok()
+                .eTag(VersionTags.toETag(category.getVersion()))
+                .body(category);
     }
     
     @Operation(summary = "Update a category of book.")
@@ -51,10 +57,16 @@ public class CategoryController
     @PreAuthorize("hasAnyRole('ADMIN','MODERATOR')")
     public ResponseEntity<Category> updateCategory(
             @PathVariable Long idCategory,
-            @Valid @RequestBody CategoryDto categoryDto
+            @Valid @RequestBody CategoryDto categoryDto,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
     ) {
-        return ResponseEntity.ok(this.categoryService.updateCategory(idCategory,
-                                                                     categoryDto));
+        Category category = this.categoryService.updateCategory(idCategory,
+                                                                categoryDto,
+                                                                VersionTags.parseIfMatch(ifMatch));
+        return ResponseEntity
+                .ok()
+                .eTag(VersionTags.toETag(category.getVersion()))
+                .body(category);
     }
     
     @Operation(summary = "Delete a category of book.")
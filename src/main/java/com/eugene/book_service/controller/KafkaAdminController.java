@@ -0,0 +1,27 @@
+package com.eugene.book_service.controller;
+
+import com.eugene.book_service.kafka.DeadLetterReplayer;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+@RestController
+@RequestMapping("/api/admin/kafka")
+@RequiredArgsConstructor
+public class KafkaAdminController
+{
+    private final DeadLetterReplayer deadLetterReplayer;
+    
+    @Operation(summary = "Send the events of a dead-letter topic back to their topic, returns the number of events replayed.")
+    @PostMapping("/dlt/{topic}/replay")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Integer> replayDeadLetters(@PathVariable String topic)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return ResponseEntity.ok(this.deadLetterReplayer.replay(topic));
+    }
+}
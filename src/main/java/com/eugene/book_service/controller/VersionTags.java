@@ -0,0 +1,40 @@
+package com.eugene.book_service.controller;
+
+/**
+ * The ETags of the API are the versions of the entities, quoted.
+ */
+final class VersionTags
+{
+    private static final String ANY = "*";
+    
+    private VersionTags() {
+    }
+    
+    static String toETag(Long version) {
+        return "\"" + version + "\"";
+    }
+    
+    /**
+     * Only a single strong tag or any tag can be required, as the version has a single value.
+     *
+     * @return the version required by an If-Match header, or null when any version matches.
+     */
+    static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.equals(ANY)) {
+            return null;
+        }
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1,
+                                                    tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("The If-Match header must be a single ETag of the resource, or *.");
+    }
+}
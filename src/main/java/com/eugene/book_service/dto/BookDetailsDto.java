@@ -1,5 +1,7 @@
 package com.eugene.book_service.dto;
 
+import com.eugene.book_service.model.ReviewIdSet;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.NotBlank;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -10,6 +12,7 @@ import java.util.Set;
 
 /**
  * This class is used to transfer all the information about a book.
+ * The version is the one of the book when the details were read.
  */
 @Setter
 @Getter
@@ -32,5 +35,8 @@ public class BookDetailsDto
     private String url;
 
     private Set<String> categories;
-    private Set<Long> reviewsIds;
+    private ReviewIdSet reviewsIds;
+
+    @JsonIgnore  // Exposed as the ETag
+    private Long version;
 }
\ No newline at end of file
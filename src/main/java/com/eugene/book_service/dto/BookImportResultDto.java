@@ -0,0 +1,31 @@
+package com.eugene.book_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * This class is used to report the outcome of a row of a book import.
+ * The line is the one of the row in the imported document, the message explains why the row was
+ * not imported.
+ */
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookImportResultDto
+{
+    private long line;
+    private String isbn;
+    private Status status;
+    private String message;
+    
+    public enum Status
+    {
+        CREATED,
+        DUPLICATED,
+        INVALID,
+        FAILED
+    }
+}
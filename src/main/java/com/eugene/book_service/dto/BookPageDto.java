@@ -0,0 +1,22 @@
+package com.eugene.book_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * This class is used to transfer one page of books ordered by ISBN.
+ * The next cursor is null when the last page has been reached.
+ */
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookPageDto
+{
+    private List<BookDetailsDto> books;
+    private String nextCursor;
+}
@@ -0,0 +1,32 @@
+package com.eugene.book_service.dto;
+
+import jakarta.validation.constraints.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Set;
+
+/**
+ * This class is used to update some fields of a book.
+ * A null field is left unchanged, the categories included. The description can't be cleared.
+ */
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookPatchDto
+{
+    private String title;
+    
+    private String description;
+    
+    @Pattern(regexp = ".*\\S.*", message = "The author can't be blank.")
+    private String author;
+    
+    @Pattern(regexp = ".*\\S.*", message = "The location of the book can't be blank.")
+    private String url;
+    
+    private Set<Long> categoriesIds;
+}
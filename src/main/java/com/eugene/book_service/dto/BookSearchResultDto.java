@@ -0,0 +1,22 @@
+package com.eugene.book_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * This class is used to transfer the best matches of a search, the most relevant first,
+ * and the number of books matching the search.
+ */
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookSearchResultDto
+{
+    private List<BookDetailsDto> books;
+    private long totalHits;
+}
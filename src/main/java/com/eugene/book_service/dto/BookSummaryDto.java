@@ -0,0 +1,23 @@
+package com.eugene.book_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * This class is used to read the scalar columns of a book without loading the entity.
+ */
+@Setter
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookSummaryDto
+{
+    private String isbn;
+    private String title;
+    private String description;
+    private String author;
+    private String url;
+    private Long version;
+}
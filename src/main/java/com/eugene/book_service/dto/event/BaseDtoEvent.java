@@ -8,8 +8,12 @@ import lombok.Setter;
 @Getter
 @Setter
 @NoArgsConstructor
-class BaseDtoEvent {
+public class BaseDtoEvent {
     private KafkaEventType eventType;
+    // Unique ID of the event, used by the consumers to skip the redelivered events
+    private String eventId;
+    // Creation time of the event, in milliseconds since the epoch
+    private Long timestamp;
 
     public BaseDtoEvent(KafkaEventType eventType) {
         this.eventType = eventType;
@@ -1,13 +1,11 @@
 package com.eugene.book_service.dto.event;
 
 import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.model.ReviewIdSet;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.util.Set;
-
-
 @Getter
 @Setter
 @NoArgsConstructor
@@ -17,13 +15,13 @@ public class ReviewDtoEvent
     
     private String userId;
     private String isbn;
-    private Set<Long> reviewsIds;
+    private ReviewIdSet reviewsIds;
     
     public ReviewDtoEvent(
             KafkaEventType eventType,
             String userId,
             String isbn,
-            Set<Long> reviewsIds
+            ReviewIdSet reviewsIds
     ) {
         super(eventType);
         this.userId = userId;
@@ -1,20 +1,19 @@
 package com.eugene.book_service.dto.event;
 
 import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.model.ReviewIdSet;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.util.Set;
-
 @Getter
 @Setter
 @NoArgsConstructor
 public class UserDtoEvent extends BaseDtoEvent {
 
-    private Set<Long> reviewsIds;
+    private ReviewIdSet reviewsIds;
 
-    public UserDtoEvent(KafkaEventType eventType, Set<Long> reviewsIds) {
+    public UserDtoEvent(KafkaEventType eventType, ReviewIdSet reviewsIds) {
         super(eventType);
         this.reviewsIds = reviewsIds;
     }
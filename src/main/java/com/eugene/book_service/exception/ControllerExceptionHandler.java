@@ -54,6 +54,19 @@ public class ControllerExceptionHandler
         return new ResponseEntity<>(errorMessage, HttpStatus.CONFLICT);
     }
 
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<ErrorMessage> conflictExceptionHandler(
+            ConflictException ex,
+            WebRequest request
+    ) {
+        ErrorMessage errorMessage = new ErrorMessage(HttpStatus.CONFLICT.value(), new Date(),
+                                                     ex.getMessage(),
+                                                     getCauseMessage(ex.getCause()),
+                                                     request.getDescription(false));
+
+        return new ResponseEntity<>(errorMessage, HttpStatus.CONFLICT);
+    }
+
     @ExceptionHandler(NotFoundException.class)
     public ResponseEntity<ErrorMessage> resourceNotFoundExceptionHandler(
             NotFoundException ex,
@@ -67,6 +80,19 @@ public class ControllerExceptionHandler
         return new ResponseEntity<>(errorMessage, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorMessage> preconditionFailedExceptionHandler(
+            PreconditionFailedException ex,
+            WebRequest request
+    ) {
+        ErrorMessage errorMessage = new ErrorMessage(HttpStatus.PRECONDITION_FAILED.value(), new Date(),
+                                                     ex.getMessage(),
+                                                     getCauseMessage(ex.getCause()),
+                                                     request.getDescription(false));
+
+        return new ResponseEntity<>(errorMessage, HttpStatus.PRECONDITION_FAILED);
+    }
+
     @ExceptionHandler(value = {JsonProcessingException.class, URISyntaxException.class,
             IllegalArgumentException.class, Exception.class})
     public ResponseEntity<ErrorMessage> globalExceptionHandler(
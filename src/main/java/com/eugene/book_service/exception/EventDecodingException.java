@@ -0,0 +1,20 @@
+package com.eugene.book_service.exception;
+
+import java.io.Serial;
+
+/**
+ * Thrown by the event codecs when a payload can't be decoded, which no retry fixes.
+ */
+public class EventDecodingException
+        extends RuntimeException
+{
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public EventDecodingException(
+            String message,
+            Throwable cause
+    ) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,17 @@
+package com.eugene.book_service.exception;
+
+import java.io.Serial;
+
+public class PreconditionFailedException
+        extends RuntimeException
+{
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public PreconditionFailedException(
+            String message,
+            Throwable cause
+    ) {
+        super(message, cause);
+    }
+}
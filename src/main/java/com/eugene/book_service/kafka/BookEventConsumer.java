@@ -1,81 +1,420 @@
 package com.eugene.book_service.kafka;
 
+import com.eugene.book_service.dto.event.BaseDtoEvent;
 import com.eugene.book_service.dto.event.ReviewDtoEvent;
 import com.eugene.book_service.dto.event.UserDtoEvent;
-import com.eugene.book_service.model.Book;
+import com.eugene.book_service.exception.EventDecodingException;
+import com.eugene.book_service.exception.JsonException;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.model.ReviewIdSet;
 import com.eugene.book_service.repository.BookRepository;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.eugene.book_service.repository.BookReviewsRepository;
+import com.eugene.book_service.service.BookReviewsChangedEvent;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.annotation.DltHandler;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.retrytopic.TopicSuffixingStrategy;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.retry.annotation.Backoff;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
 public class BookEventConsumer
 {
+    private static final int IN_LIST_CHUNK_SIZE = 500;
+    
     private final Logger log = LoggerFactory.getLogger(BookEventConsumer.class);
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EventSerde eventSerde;
     private final BookRepository bookRepository;
+    private final BookReviewsRepository bookReviewsRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final KeyedLaneExecutor keyedLaneExecutor;
+    private final ProcessedEventStore processedEventStore;
+    private final FailedEventRecoverer failedEventRecoverer;
     
-    @KafkaListener(topics = "user.events", groupId = "book-service-group")
-    @Transactional
-    public void handleUserEvents(String json) throws JsonProcessingException {
-        UserDtoEvent userDtoEvent = this.objectMapper.readValue(json,
-                                                                UserDtoEvent.class);
-        if (Objects.equals(userDtoEvent.getEventType(),
-                           KafkaEventType.USER_DELETED)) {
-            deleteBookReviewsByIds(userDtoEvent.getReviewsIds());
+    /**
+     * The events sent without ID are identified by their record, which keeps its offset when it is
+     * redelivered. The records of the retry topics are identified by the record they come from.
+     */
+    private static String eventId(
+            BaseDtoEvent event,
+            ConsumerRecord<String, byte[]> record
+    ) {
+        if (event.getEventId() != null) {
+            return event.getEventId();
+        }
+        Header topic = firstHeader(record,
+                                   KafkaHeaders.ORIGINAL_TOPIC);
+        Header partition = firstHeader(record,
+                                       KafkaHeaders.ORIGINAL_PARTITION);
+        Header offset = firstHeader(record,
+                                    KafkaHeaders.ORIGINAL_OFFSET);
+        if (topic == null || partition == null || offset == null) {
+            return record.topic() + "-" + record.partition() + "@" + record.offset();
         }
+        return new String(topic.value(),
+                          StandardCharsets.UTF_8) + "-" + ByteBuffer
+                .wrap(partition.value())
+                .getInt() + "@" + ByteBuffer
+                .wrap(offset.value())
+                .getLong();
     }
     
-    @KafkaListener(topics = "review.events", groupId = "book-service-group")
+    /**
+     * The first header is the one of the first failure, when the headers of every hop are kept.
+     */
+    private static Header firstHeader(
+            ConsumerRecord<String, byte[]> record,
+            String name
+    ) {
+        Iterator<Header> headers = record
+                .headers()
+                .headers(name)
+                .iterator();
+        return headers.hasNext()
+                ? headers.next()
+                : null;
+    }
+    
+    /**
+     * A failed event is retried with backoff through retry topics, so the next events of the topic
+     * are not blocked, then moved to the dead-letter topic. The events which can't be decoded go to
+     * the dead-letter topic at once.
+     */
+    @RetryableTopic(attempts = "${book.kafka.retry.attempts:4}",
+            backoff = @Backoff(delayExpression = "${book.kafka.retry.delay-ms:1000}",
+                    multiplierExpression = "${book.kafka.retry.multiplier:2}",
+                    maxDelayExpression = "${book.kafka.retry.max-delay-ms:60000}"),
+            retryTopicSuffix = KafkaTopicConfig.RETRY_SUFFIX,
+            dltTopicSuffix = KafkaTopicConfig.DLT_SUFFIX,
+            topicSuffixingStrategy = TopicSuffixingStrategy.SUFFIX_WITH_INDEX_VALUE,
+            numPartitions = "${book.kafka.topics.partitions:1}",
+            replicationFactor = "${book.kafka.topics.replicas:1}",
+            exclude = {JsonException.class, EventDecodingException.class})
+    @KafkaListener(topics = KafkaTopicConfig.USER_EVENTS, groupId = "book-service-group")
     @Transactional
-    public void handleReviewsEvents(String json) throws JsonProcessingException {
-        ReviewDtoEvent reviewDtoEvent = this.objectMapper.readValue(json,
-                                                                    ReviewDtoEvent.class);
-        switch (reviewDtoEvent.getEventType()) {
-            case REVIEWS_CREATED -> addNewReviewsToBook(reviewDtoEvent);
-            case REVIEWS_DELETED -> deleteBookReviewsByIds(reviewDtoEvent.getReviewsIds());
-            case null, default -> {
-                // No need to treat the other enum values since user-service don't listen those events in review topic
+    public void handleUserEvents(ConsumerRecord<String, byte[]> record) {
+        try {
+            UserDtoEvent userDtoEvent = this.eventSerde.decode(record,
+                                                               UserDtoEvent.class);
+            List<String> eventIds = List.of(eventId(userDtoEvent,
+                                                    record));
+            if (!this.processedEventStore
+                    .findProcessed(eventIds)
+                    .isEmpty()) {
+                this.log.info("User event {} already processed, skipped.",
+                              eventIds.getFirst());
+                return;
+            }
+            if (Objects.equals(userDtoEvent.getEventType(),
+                               KafkaEventType.USER_DELETED)) {
+                deleteBookReviewsByIds(userDtoEvent.getReviewsIds());
+            }
+            this.processedEventStore.markProcessed(eventIds);
+        } catch (RuntimeException e) {
+            this.failedEventRecoverer.countFailure(record.topic(),
+                                                   FailedEventRecoverer.stageOf(record,
+                                                                                e));
+            throw e;
+        }
+    }
+    
+    /**
+     * Receives the records of a whole poll, which are keyed by ISBN. The books are spread over the
+     * lanes of the KeyedLaneExecutor, so different books are processed in parallel while the events
+     * of a book keep their order. A book failing doesn't fail the other books of its lane.
+     * The deletions without ISBN may concern any book: they are applied once all the lanes are done,
+     * so a review created in the batch is never deleted before being created.
+     * When the records of a failed book can't be moved aside, the listener fails on the first of them
+     * once the batch is done: the error handler commits the offsets before it, moves it aside or seeks
+     * back to it, and the next records are redelivered, the books already committed being skipped as
+     * processed.
+     */
+    @KafkaListener(topics = KafkaTopicConfig.REVIEW_EVENTS, groupId = "book-service-group", batch = "true")
+    public void handleReviewsEvents(List<ConsumerRecord<String, byte[]>> records) {
+        List<ReviewDtoEvent> reviewDtoEvents = new ArrayList<>(records.size());
+        List<ReviewDtoEvent> eventsWithoutIsbn = new ArrayList<>();
+        Map<ReviewDtoEvent, ConsumerRecord<String, byte[]>> recordsByEvent = new IdentityHashMap<>();
+        // The records which couldn't be moved aside, and why, filled by the lanes
+        Map<ConsumerRecord<String, byte[]>, RuntimeException> unrecovered = new ConcurrentHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            ReviewDtoEvent reviewDtoEvent;
+            try {
+                reviewDtoEvent = this.eventSerde.decode(record,
+                                                        ReviewDtoEvent.class);
+            } catch (RuntimeException e) {
+                recoverInOrder(List.of(record),
+                               e,
+                               unrecovered);
+                continue;
+            }
+            if (reviewDtoEvent.getReviewsIds() != null) {
+                reviewDtoEvent.setEventId(eventId(reviewDtoEvent,
+                                                  record));
+                if (reviewDtoEvent.getIsbn() != null) {
+                    reviewDtoEvents.add(reviewDtoEvent);
+                } else {
+                    eventsWithoutIsbn.add(reviewDtoEvent);
+                }
+                recordsByEvent.put(reviewDtoEvent,
+                                   record);
+            }
+        }
+        this.keyedLaneExecutor.runByKey(reviewDtoEvents,
+                                        ReviewDtoEvent::getIsbn,
+                                        events -> applyReviewsEventsByBook(events,
+                                                                           recordsByEvent,
+                                                                           unrecovered));
+        if (!eventsWithoutIsbn.isEmpty()) {
+            applyReviewsEventsByBook(eventsWithoutIsbn,
+                                     recordsByEvent,
+                                     unrecovered);
+        }
+        
+        for (ConsumerRecord<String, byte[]> record : records) {
+            RuntimeException failure = unrecovered.get(record);
+            if (failure != null) {
+                throw new BatchListenerFailedException("Failed to move aside the records of a book",
+                                                       failure,
+                                                       record);
+            }
+        }
+    }
+    
+    /**
+     * Applies the events of a lane with a transaction per book. A failed book is rolled back and all
+     * its records of the batch are moved to the retry topic in their order, so its later events stay
+     * behind the failed ones, while the other books of the lane are committed.
+     */
+    private void applyReviewsEventsByBook(
+            List<ReviewDtoEvent> events,
+            Map<ReviewDtoEvent, ConsumerRecord<String, byte[]>> recordsByEvent,
+            Map<ConsumerRecord<String, byte[]>, RuntimeException> unrecovered
+    ) {
+        Map<String, List<ReviewDtoEvent>> eventsByIsbn = new LinkedHashMap<>();
+        for (ReviewDtoEvent event : events) {
+            eventsByIsbn
+                    .computeIfAbsent(event.getIsbn(),
+                                     isbn -> new ArrayList<>())
+                    .add(event);
+        }
+        eventsByIsbn.forEach((isbn, bookEvents) -> {
+            try {
+                this.transactionTemplate.executeWithoutResult(status -> applyReviewsEvents(bookEvents));
+            } catch (RuntimeException e) {
+                recoverInOrder(bookEvents
+                                       .stream()
+                                       .map(recordsByEvent::get)
+                                       .toList(),
+                               e,
+                               unrecovered);
+            }
+        });
+    }
+    
+    /**
+     * Moves aside the failed records in their order. Once one of them can't be, it and the next ones
+     * are left in the topic, so none of them overtakes it.
+     */
+    private void recoverInOrder(
+            List<ConsumerRecord<String, byte[]>> failedRecords,
+            RuntimeException exception,
+            Map<ConsumerRecord<String, byte[]>, RuntimeException> unrecovered
+    ) {
+        RuntimeException recoveryFailure = null;
+        for (ConsumerRecord<String, byte[]> record : failedRecords) {
+            if (recoveryFailure == null) {
+                try {
+                    this.failedEventRecoverer.recover(record,
+                                                      exception);
+                    continue;
+                } catch (RuntimeException e) {
+                    this.log.error("Failed to move aside the record {}-{}@{}, left in the topic.",
+                                   record.topic(),
+                                   record.partition(),
+                                   record.offset(),
+                                   e);
+                    recoveryFailure = e;
+                }
+            }
+            unrecovered.put(record,
+                            recoveryFailure);
+        }
+    }
+    
+    /**
+     * Retries one by one the review events failed in a batch, with backoff through retry topics,
+     * then moves them to the dead-letter topic.
+     */
+    @RetryableTopic(attempts = "${book.kafka.retry.attempts:4}",
+            backoff = @Backoff(delayExpression = "${book.kafka.retry.delay-ms:1000}",
+                    multiplierExpression = "${book.kafka.retry.multiplier:2}",
+                    maxDelayExpression = "${book.kafka.retry.max-delay-ms:60000}"),
+            retryTopicSuffix = KafkaTopicConfig.RETRY_SUFFIX,
+            dltTopicSuffix = KafkaTopicConfig.DLT_SUFFIX,
+            topicSuffixingStrategy = TopicSuffixingStrategy.SUFFIX_WITH_INDEX_VALUE,
+            numPartitions = "${book.kafka.topics.partitions:1}",
+            replicationFactor = "${book.kafka.topics.replicas:1}",
+            exclude = {JsonException.class, EventDecodingException.class})
+    @KafkaListener(topics = KafkaTopicConfig.REVIEW_EVENTS_RETRY, groupId = "book-service-group")
+    public void handleReviewsRetryEvents(ConsumerRecord<String, byte[]> record) {
+        try {
+            ReviewDtoEvent reviewDtoEvent = this.eventSerde.decode(record,
+                                                                   ReviewDtoEvent.class);
+            if (reviewDtoEvent.getReviewsIds() != null) {
+                reviewDtoEvent.setEventId(eventId(reviewDtoEvent,
+                                                  record));
+                this.transactionTemplate.executeWithoutResult(status -> applyReviewsEvents(List.of(reviewDtoEvent)));
             }
+        } catch (RuntimeException e) {
+            this.failedEventRecoverer.countFailure(record.topic(),
+                                                   FailedEventRecoverer.stageOf(record,
+                                                                                e));
+            throw e;
         }
     }
     
-    private void addNewReviewsToBook(ReviewDtoEvent reviewDtoEvent) {
-        bookRepository
-                .findById(reviewDtoEvent.getIsbn())
-                .ifPresent(book -> {
-                    Set<Long> reviewIds = new HashSet<>(book.getReviewsIds());
-                    reviewIds.addAll(reviewDtoEvent.getReviewsIds());
-                    book.setReviewsIds(reviewIds);
-                    bookRepository.save(book);
-                    this.log.info("New review added to the book.");
+    /**
+     * Receives the events given up, from the dead-letter topics of both listeners. They stay in the
+     * topic until replayed by the DeadLetterReplayer.
+     */
+    @DltHandler
+    public void handleDeadLetter(ConsumerRecord<String, byte[]> record) {
+        this.failedEventRecoverer.countFailure(record.topic(),
+                                               FailedEventRecoverer.DEAD_LETTER);
+        this.log.error("Event {}-{}@{} given up and left in the dead-letter topic.",
+                       record.topic(),
+                       record.partition(),
+                       record.offset());
+    }
+    
+    /**
+     * The events already processed are skipped, then the others are coalesced: they are walked
+     * backwards, so the last event of a review ID decides whether it is created or deleted, and a
+     * review created then deleted within the batch is never written. The IDs stay primitive all along.
+     * The net changes are applied in one transaction, the new review IDs being appended in JDBC
+     * batches, and the events are marked as processed in the same transaction.
+     */
+    private void applyReviewsEvents(List<ReviewDtoEvent> reviewDtoEvents) {
+        Set<String> processedIds = this.processedEventStore.findProcessed(reviewDtoEvents
+                                                                                  .stream()
+                                                                                  .map(BaseDtoEvent::getEventId)
+                                                                                  .toList());
+        Set<String> newIds = new LinkedHashSet<>();
+        List<ReviewDtoEvent> newEvents = new ArrayList<>(reviewDtoEvents.size());
+        int reviewCount = 0;
+        for (ReviewDtoEvent reviewDtoEvent : reviewDtoEvents) {
+            if (!processedIds.contains(reviewDtoEvent.getEventId()) && newIds.add(reviewDtoEvent.getEventId())) {
+                newEvents.add(reviewDtoEvent);
+                reviewCount += reviewDtoEvent
+                        .getReviewsIds()
+                        .size();
+            }
+        }
+        
+        LongHashSet decidedReviews = new LongHashSet(reviewCount);
+        Map<String, ReviewIdSet.Builder> createdReviews = new HashMap<>();
+        ReviewIdSet.Builder deletedReviews = ReviewIdSet.builder(reviewCount);
+        for (int i = newEvents.size() - 1; i >= 0; i--) {
+            ReviewDtoEvent reviewDtoEvent = newEvents.get(i);
+            ReviewIdSet reviewsIds = reviewDtoEvent.getReviewsIds();
+            switch (reviewDtoEvent.getEventType()) {
+                case REVIEWS_CREATED -> {
+                    ReviewIdSet.Builder created = createdReviews.computeIfAbsent(reviewDtoEvent.getIsbn(),
+                                                                                 isbn -> ReviewIdSet.builder(reviewsIds.size()));
+                    reviewsIds.forEach(reviewId -> {
+                        if (decidedReviews.add(reviewId)) {
+                            created.add(reviewId);
+                        }
+                    });
+                }
+                case REVIEWS_DELETED -> reviewsIds.forEach(reviewId -> {
+                    if (decidedReviews.add(reviewId)) {
+                        deletedReviews.add(reviewId);
+                    }
                 });
+                case null, default -> {
+                    // No need to treat the other enum values since user-service don't listen those events in review topic
+                }
+            }
+        }
+        
+        if (!processedIds.isEmpty()) {
+            this.log.info("{} review events already processed, skipped.",
+                          processedIds.size());
+        }
+        deleteBookReviewsByIds(deletedReviews.build());
+        addNewReviewsToBooks(createdReviews);
+        this.processedEventStore.markProcessed(newIds);
+    }
+    
+    private void addNewReviewsToBooks(Map<String, ReviewIdSet.Builder> createdReviews) {
+        Map<String, ReviewIdSet> reviewsIdsByIsbn = new HashMap<>();
+        createdReviews.forEach((isbn, builder) -> {
+            if (!builder.isEmpty()) {
+                reviewsIdsByIsbn.put(isbn,
+                                     builder.build());
+            }
+        });
+        if (reviewsIdsByIsbn.isEmpty()) {
+            return;
+        }
+        Set<String> isbns = this.bookReviewsRepository.addReviewsIds(reviewsIdsByIsbn);
+        if (!isbns.isEmpty()) {
+            this.eventPublisher.publishEvent(new BookReviewsChangedEvent(isbns));
+        }
+        this.log.info("New reviews added to {} books.",
+                      isbns.size());
     }
     
-    private void deleteBookReviewsByIds(Set<Long> reviewsIds) {
-        List<Book> books = bookRepository.findAll();
-        for (Book b : books) {
-            Set<Long> reviewsIdsUpdated = b
-                    .getReviewsIds()
+    /**
+     * The books are found through the index of the review IDs, then the IDs are deleted and the
+     * versions of the books incremented, so the cost depends on the number of reviews, not on the
+     * size of the catalog. The IDs and the ISBNs are bound by chunks, far below the limit of the
+     * bind parameters of a statement.
+     */
+    private void deleteBookReviewsByIds(ReviewIdSet reviewsIds) {
+        if (reviewsIds == null || reviewsIds.isEmpty()) {
+            return;
+        }
+        List<ReviewIdSet> chunks = reviewsIds.split(IN_LIST_CHUNK_SIZE);
+        Set<String> isbns = new HashSet<>();
+        for (ReviewIdSet chunk : chunks) {
+            isbns.addAll(bookRepository.findIsbnsByReviewsIds(chunk.asList()));
+        }
+        if (!isbns.isEmpty()) {
+            for (ReviewIdSet chunk : chunks) {
+                bookRepository.deleteReviewsByIds(chunk.asList());
+            }
+            List<String> sortedIsbns = isbns
                     .stream()
-                    .filter(r -> !reviewsIds.contains(r))
-                    .collect(Collectors.toSet());
-            b.setReviewsIds(reviewsIdsUpdated);
-            bookRepository.save(b);
+                    .sorted()
+                    .toList();
+            for (int from = 0; from < sortedIsbns.size(); from += IN_LIST_CHUNK_SIZE) {
+                bookRepository.incrementVersions(sortedIsbns.subList(from,
+                                                                     Math.min(from + IN_LIST_CHUNK_SIZE,
+                                                                              sortedIsbns.size())));
+            }
+            this.eventPublisher.publishEvent(new BookReviewsChangedEvent(isbns));
         }
-        this.log.info("Reviews deleted in Books");
+        this.log.info("Reviews deleted in {} books",
+                      isbns.size());
     }
-}
\ No newline at end of file
+}
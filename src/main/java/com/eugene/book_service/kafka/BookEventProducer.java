@@ -1,31 +1,48 @@
 package com.eugene.book_service.kafka;
 
 import com.eugene.book_service.dto.event.BookDtoEvent;
-import com.eugene.book_service.exception.JsonException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.eugene.book_service.model.OutboxEvent;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.repository.OutboxEventRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Set;
+import java.util.UUID;
 
+/**
+ * Writes the book events to the outbox, in the transaction of the caller. They are sent to Kafka by
+ * the OutboxRelay once committed, so the requests never wait for the broker.
+ */
 @Service
 @RequiredArgsConstructor
 public class BookEventProducer
 {
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutboxEventRepository outboxEventRepository;
+    private final EventSerde eventSerde;
     
-    public void sendBookDeletedEvent(Set<Long> reviewsIds) {
-        try {
-            String json = this.objectMapper.writeValueAsString(new BookDtoEvent(KafkaEventType.BOOK_DELETED,
-                                                                                reviewsIds));
-            this.kafkaTemplate.send("book.events",
-                                    json);
-        } catch (JsonProcessingException e) {
-            throw new JsonException("Failed to serialize the list of IDs",
-                                    e.getCause());
-        }
+    /**
+     * The record is keyed by ISBN, so the events of a book always go to the same partition.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void sendBookDeletedEvent(
+            String isbn,
+            ReviewIdSet reviewsIds
+    ) {
+        BookDtoEvent bookDtoEvent = new BookDtoEvent(KafkaEventType.BOOK_DELETED,
+                                                     reviewsIds);
+        bookDtoEvent.setEventId(UUID
+                                        .randomUUID()
+                                        .toString());
+        bookDtoEvent.setTimestamp(System.currentTimeMillis());
+        byte[] payload = this.eventSerde.encode(bookDtoEvent);
+        this.outboxEventRepository.save(new OutboxEvent(KafkaTopicConfig.BOOK_EVENTS,
+                                                        isbn,
+                                                        payload,
+                                                        this.eventSerde
+                                                                .writeFormat()
+                                                                .getHeaderValue()));
     }
 }
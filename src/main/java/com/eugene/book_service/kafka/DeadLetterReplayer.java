@@ -0,0 +1,174 @@
+package com.eugene.book_service.kafka;
+
+import com.eugene.book_service.kafka.serde.EventFormat;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends the events of a dead-letter topic back to the topic of their listener, once the cause of
+ * their failure is fixed. The position in the dead-letter topic is committed under its own group,
+ * so an event is replayed once, and the consumers skip the events they already processed.
+ */
+@Component
+public class DeadLetterReplayer
+{
+    public static final String REPLAY_GROUP = "book-service-dlt-replay";
+    
+    private static final Map<String, String> TARGET_TOPICS = Map.of(KafkaTopicConfig.USER_EVENTS_DLT,
+                                                                    KafkaTopicConfig.USER_EVENTS,
+                                                                    KafkaTopicConfig.REVIEW_EVENTS_DLT,
+                                                                    KafkaTopicConfig.REVIEW_EVENTS);
+    
+    private final Logger log = LoggerFactory.getLogger(DeadLetterReplayer.class);
+    
+    // Not available when Kafka is disabled
+    private final ObjectProvider<ConsumerFactory<String, byte[]>> consumerFactory;
+    private final KafkaEventSender kafkaEventSender;
+    private final long sendTimeoutMs;
+    
+    public DeadLetterReplayer(
+            ObjectProvider<ConsumerFactory<String, byte[]>> consumerFactory,
+            KafkaEventSender kafkaEventSender,
+            @Value("${book.outbox.relay.send-timeout-ms:10000}") long sendTimeoutMs
+    ) {
+        this.consumerFactory = consumerFactory;
+        this.kafkaEventSender = kafkaEventSender;
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+    
+    /**
+     * Replays the events in the dead-letter topic when called, the ones arriving meanwhile are left
+     * for the next replay.
+     *
+     * @return the number of events replayed.
+     */
+    public synchronized int replay(String deadLetterTopic)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        String targetTopic = TARGET_TOPICS.get(deadLetterTopic);
+        if (targetTopic == null) {
+            throw new IllegalArgumentException("Unknown dead-letter topic " + deadLetterTopic + ", expected one of " + TARGET_TOPICS.keySet() + ".");
+        }
+        ConsumerFactory<String, byte[]> factory = this.consumerFactory.getIfAvailable();
+        if (factory == null) {
+            throw new IllegalStateException("Kafka is not configured.");
+        }
+        
+        int replayed = 0;
+        // The offsets are committed by hand, once their events are acknowledged
+        Properties consumerProperties = new Properties();
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG,
+                               "false");
+        try (Consumer<String, byte[]> consumer = factory.createConsumer(REPLAY_GROUP,
+                                                                        null,
+                                                                        null,
+                                                                        consumerProperties)) {
+            List<TopicPartition> partitions = consumer
+                    .partitionsFor(deadLetterTopic)
+                    .stream()
+                    .map(info -> new TopicPartition(deadLetterTopic,
+                                                    info.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = committed.get(partition);
+                if (offset == null) {
+                    consumer.seekToBeginning(List.of(partition));
+                } else {
+                    consumer.seek(partition,
+                                  offset.offset());
+                }
+            }
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            
+            while (partitions
+                    .stream()
+                    .anyMatch(partition -> consumer.position(partition) < endOffsets.get(partition))) {
+                List<ConsumerRecord<String, byte[]>> sentRecords = new ArrayList<>();
+                List<CompletableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>();
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofSeconds(1))) {
+                    TopicPartition partition = new TopicPartition(record.topic(),
+                                                                  record.partition());
+                    if (record.offset() >= endOffsets.get(partition)) {
+                        continue;
+                    }
+                    Header format = record
+                            .headers()
+                            .lastHeader(EventSerde.FORMAT_HEADER);
+                    futures.add(this.kafkaEventSender.send(targetTopic,
+                                                           record.key(),
+                                                           record.value(),
+                                                           (format == null)
+                                                                   ? EventFormat.JSON.getHeaderValue()
+                                                                   : new String(format.value(),
+                                                                                StandardCharsets.UTF_8)));
+                    sentRecords.add(record);
+                }
+                
+                // Only the offsets acknowledged are committed, up to the first failure of each
+                // partition, so a failed replay is resumed where it stopped
+                Map<TopicPartition, OffsetAndMetadata> positions = new HashMap<>();
+                Set<TopicPartition> failedPartitions = new HashSet<>();
+                Exception failure = null;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.sendTimeoutMs);
+                for (int i = 0; i < futures.size(); i++) {
+                    ConsumerRecord<String, byte[]> record = sentRecords.get(i);
+                    TopicPartition partition = new TopicPartition(record.topic(),
+                                                                  record.partition());
+                    if (failedPartitions.contains(partition)) {
+                        continue;
+                    }
+                    try {
+                        futures
+                                .get(i)
+                                .get(Math.max(0,
+                                              deadline - System.nanoTime()),
+                                     TimeUnit.NANOSECONDS);
+                        positions.put(partition,
+                                      new OffsetAndMetadata(record.offset() + 1));
+                        replayed++;
+                    } catch (ExecutionException | TimeoutException e) {
+                        failedPartitions.add(partition);
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+                if (!positions.isEmpty()) {
+                    consumer.commitSync(positions);
+                }
+                if (failure instanceof ExecutionException e) {
+                    throw e;
+                }
+                if (failure instanceof TimeoutException e) {
+                    throw e;
+                }
+            }
+        }
+        this.log.info("{} events replayed from {} to {}.",
+                      replayed,
+                      deadLetterTopic,
+                      targetTopic);
+        return replayed;
+    }
+}
@@ -0,0 +1,83 @@
+package com.eugene.book_service.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the failures of the consumers by stage and moves the failed records aside.
+ * The stages are decode for the records that can't be decoded, process for the first failure of a
+ * record, retry for the failures in the retry topics, and dead-letter for the records given up.
+ */
+@Component
+@RequiredArgsConstructor
+public class FailedEventRecoverer
+{
+    public static final String DECODE = "decode";
+    public static final String PROCESS = "process";
+    public static final String RETRY = "retry";
+    public static final String DEAD_LETTER = "dead-letter";
+    
+    private final Logger log = LoggerFactory.getLogger(FailedEventRecoverer.class);
+    
+    private final DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+    private final MeterRegistry meterRegistry;
+    
+    /**
+     * @return the stage of a failure of the record.
+     */
+    public static String stageOf(
+            ConsumerRecord<?, ?> record,
+            Exception exception
+    ) {
+        if (KafkaErrorHandlingConfig.isPoison(exception)) {
+            return DECODE;
+        }
+        return record
+                .topic()
+                .contains(KafkaTopicConfig.RETRY_SUFFIX)
+                ? RETRY
+                : PROCESS;
+    }
+    
+    public void countFailure(
+            String topic,
+            String stage
+    ) {
+        Counter
+                .builder("book.kafka.consumer.failures")
+                .description("Records of the consumers which failed, by stage")
+                .tag("topic",
+                     topic)
+                .tag("stage",
+                     stage)
+                .register(this.meterRegistry)
+                .increment();
+    }
+    
+    /**
+     * Publishes the record to the retry or the dead-letter topic, and waits for the broker.
+     */
+    public void recover(
+            ConsumerRecord<?, ?> record,
+            Exception exception
+    ) {
+        String stage = stageOf(record,
+                               exception);
+        countFailure(record.topic(),
+                     stage);
+        this.log.warn("Failed to process the record {}-{}@{} ({}), moved aside.",
+                      record.topic(),
+                      record.partition(),
+                      record.offset(),
+                      stage,
+                      exception);
+        this.deadLetterPublishingRecoverer.accept(record,
+                                                  exception);
+    }
+}
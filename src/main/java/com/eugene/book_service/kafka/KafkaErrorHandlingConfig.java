@@ -0,0 +1,62 @@
+package com.eugene.book_service.kafka;
+
+import com.eugene.book_service.exception.EventDecodingException;
+import com.eugene.book_service.exception.JsonException;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+/**
+ * The failed records are never retried in place, which would block their partition: they are
+ * published aside at once, keeping their headers, and the listener goes on with the next ones.
+ */
+@Configuration
+public class KafkaErrorHandlingConfig
+{
+    /**
+     * @return whether the exception comes from a record that can't be decoded, which no retry fixes:
+     * a JsonException or an EventDecodingException of the EventSerde.
+     */
+    static boolean isPoison(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JsonException || cause instanceof EventDecodingException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The review events go to the retry topic, or straight to the dead-letter topic when they can't
+     * be decoded. The records of the other topics go to their dead-letter topic.
+     */
+    @Bean
+    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(KafkaTemplate<String, byte[]> kafkaTemplate) {
+        return new DeadLetterPublishingRecoverer(kafkaTemplate,
+                                                 (record, exception) -> {
+                                                     if (!KafkaTopicConfig.REVIEW_EVENTS.equals(record.topic())) {
+                                                         return new TopicPartition(record.topic() + KafkaTopicConfig.DLT_SUFFIX,
+                                                                                   -1);
+                                                     }
+                                                     return new TopicPartition(isPoison(exception)
+                                                                                       ? KafkaTopicConfig.REVIEW_EVENTS_DLT
+                                                                                       : KafkaTopicConfig.REVIEW_EVENTS_RETRY,
+                                                                               -1);
+                                                 });
+    }
+    
+    /**
+     * Used by the listeners without retry topics, the batch listener of the review events.
+     */
+    @Bean
+    public CommonErrorHandler kafkaErrorHandler(DeadLetterPublishingRecoverer deadLetterPublishingRecoverer) {
+        return new DefaultErrorHandler(deadLetterPublishingRecoverer,
+                                       new FixedBackOff(0L,
+                                                        0L));
+    }
+}
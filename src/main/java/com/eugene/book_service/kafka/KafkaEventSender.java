@@ -0,0 +1,95 @@
+package com.eugene.book_service.kafka;
+
+import com.eugene.book_service.kafka.serde.EventSerde;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the records asynchronously and measures them. The number of records waiting for the
+ * broker is bounded: once the limit is reached, the sender blocks until a record is acknowledged,
+ * so a slow broker slows the callers down instead of filling the memory.
+ */
+@Component
+public class KafkaEventSender
+{
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    
+    public KafkaEventSender(
+            KafkaTemplate<String, byte[]> kafkaTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${book.kafka.producer.max-in-flight:1000}") int maxInFlight
+    ) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(maxInFlight);
+        Gauge
+                .builder("book.kafka.send.in.flight",
+                         this.permits,
+                         semaphore -> maxInFlight - semaphore.availablePermits())
+                .description("Records sent and not yet acknowledged by the broker")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * The headers of the record are the ones of the format, see EventSerde.addHeaders.
+     *
+     * @return the future completed once the broker acknowledged the record, or failed.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    public CompletableFuture<SendResult<String, byte[]>> send(
+            String topic,
+            String key,
+            byte[] value,
+            String format
+    ) throws InterruptedException {
+        this.permits.acquire();
+        long start = System.nanoTime();
+        CompletableFuture<SendResult<String, byte[]>> future;
+        try {
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic,
+                                                                         key,
+                                                                         value);
+            EventSerde.addHeaders(record.headers(),
+                                  format);
+            future = this.kafkaTemplate.send(record);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, exception) -> {
+            this.permits.release();
+            Timer
+                    .builder("book.kafka.send")
+                    .description("Time until the broker acknowledged a record")
+                    .tag("topic",
+                         topic)
+                    .tag("outcome",
+                         (exception == null)
+                                 ? "success"
+                                 : "failure")
+                    .register(this.meterRegistry)
+                    .record(System.nanoTime() - start,
+                            TimeUnit.NANOSECONDS);
+            if (exception != null) {
+                Counter
+                        .builder("book.kafka.send.failures")
+                        .tag("topic",
+                             topic)
+                        .register(this.meterRegistry)
+                        .increment();
+            }
+        });
+    }
+}
@@ -1,19 +1,61 @@
 package com.eugene.book_service.kafka;
 
 import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
 
+/**
+ * The records are keyed by ISBN, so the partitions can be consumed in parallel while the events
+ * of a book stay ordered.
+ * The review events failing in a batch are moved to the retry topic, whose listener retries them
+ * with backoff through its own retry topics, then moves them to the dead-letter topic. The user
+ * events are retried the same way from their topic.
+ */
 @Configuration
 public class KafkaTopicConfig
 {
+    public static final String USER_EVENTS = "user.events";
+    public static final String REVIEW_EVENTS = "review.events";
+    public static final String BOOK_EVENTS = "book.events";
+    public static final String RETRY_SUFFIX = "-retry";
+    public static final String DLT_SUFFIX = "-dlt";
+    public static final String USER_EVENTS_DLT = USER_EVENTS + DLT_SUFFIX;
+    public static final String REVIEW_EVENTS_RETRY = REVIEW_EVENTS + RETRY_SUFFIX;
+    public static final String REVIEW_EVENTS_DLT = REVIEW_EVENTS_RETRY + DLT_SUFFIX;
+
+    @Value("${book.kafka.topics.partitions:1}")
+    private int partitions;
+
+    @Value("${book.kafka.topics.replicas:1}")
+    private int replicas;
+
+    private NewTopic topic(String name) {
+        return TopicBuilder
+                .name(name)
+                .partitions(this.partitions)
+                .replicas(this.replicas)
+                .build();
+    }
+
     @Bean
     public NewTopic userTopic() {
-        return new NewTopic("user.events", 1, (short) 1);
+        return topic(USER_EVENTS);
     }
 
     @Bean
     public NewTopic reviewTopic() {
-        return new NewTopic("review.events", 1, (short) 1);
+        return topic(REVIEW_EVENTS);
+    }
+
+    @Bean
+    public NewTopic reviewRetryTopic() {
+        return topic(REVIEW_EVENTS_RETRY);
+    }
+
+    @Bean
+    public NewTopic bookTopic() {
+        return topic(BOOK_EVENTS);
     }
-}
\ No newline at end of file
+}
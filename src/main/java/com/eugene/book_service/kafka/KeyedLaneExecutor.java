@@ -0,0 +1,98 @@
+package com.eugene.book_service.kafka;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the records of a batch on a fixed number of single threaded lanes, chosen by the hash of the
+ * record key. The records of different keys are processed in parallel, while the records of a key
+ * always go to the same lane and keep their order.
+ */
+@Component
+public class KeyedLaneExecutor
+{
+    private final ExecutorService[] lanes;
+    
+    public KeyedLaneExecutor(@Value("${book.kafka.consumer.lanes:4}") int laneCount) {
+        this.lanes = new ExecutorService[Math.max(1,
+                                                  laneCount)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(Thread
+                                                                      .ofPlatform()
+                                                                      .name("book-lane-" + i)
+                                                                      .daemon()
+                                                                      .factory());
+        }
+    }
+    
+    /**
+     * Splits the records by lane, keeping their order, and waits until every lane is done.
+     * The first failure is rethrown once all the lanes have finished, so the whole batch can be
+     * retried: the lanes must therefore be idempotent.
+     */
+    public <T> void runByKey(
+            List<T> records,
+            Function<T, Object> keyOf,
+            Consumer<List<T>> laneTask
+    ) {
+        List<List<T>> recordsByLane = new ArrayList<>(this.lanes.length);
+        for (int i = 0; i < this.lanes.length; i++) {
+            recordsByLane.add(new ArrayList<>());
+        }
+        for (T record : records) {
+            recordsByLane
+                    .get(Math.floorMod(keyOf
+                                               .apply(record)
+                                               .hashCode(),
+                                       this.lanes.length))
+                    .add(record);
+        }
+        
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < this.lanes.length; i++) {
+            List<T> laneRecords = recordsByLane.get(i);
+            if (!laneRecords.isEmpty()) {
+                futures.add(this.lanes[i].submit(() -> laneTask.accept(laneRecords)));
+            }
+        }
+        
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof RuntimeException runtimeException)
+                            ? runtimeException
+                            : new IllegalStateException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread
+                        .currentThread()
+                        .interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the lanes",
+                                                e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService lane : this.lanes) {
+            lane.shutdown();
+        }
+    }
+}
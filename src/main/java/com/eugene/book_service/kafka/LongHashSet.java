@@ -0,0 +1,71 @@
+package com.eugene.book_service.kafka;
+
+/**
+ * Minimal open addressing set of primitive longs, used to coalesce the review IDs of a batch without
+ * boxing them. Linear probing over a power of two table, kept at most half full.
+ */
+final class LongHashSet
+{
+    private long[] keys;
+    private boolean[] used;
+    private int size;
+    
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize,
+                                                      4) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.used = new boolean[capacity];
+    }
+    
+    private static int slot(
+            long key,
+            int mask
+    ) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+    
+    /**
+     * @return true when the key was not in the set yet.
+     */
+    boolean add(long key) {
+        int mask = this.keys.length - 1;
+        int i = slot(key,
+                     mask);
+        while (this.used[i]) {
+            if (this.keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        this.keys[i] = key;
+        this.used[i] = true;
+        if (++this.size * 2 > this.keys.length) {
+            grow();
+        }
+        return true;
+    }
+    
+    int size() {
+        return this.size;
+    }
+    
+    private void grow() {
+        long[] oldKeys = this.keys;
+        boolean[] oldUsed = this.used;
+        this.keys = new long[oldKeys.length * 2];
+        this.used = new boolean[oldKeys.length * 2];
+        int mask = this.keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = slot(oldKeys[j],
+                             mask);
+                while (this.used[i]) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.used[i] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.eugene.book_service.kafka;
+
+import com.eugene.book_service.model.OutboxEvent;
+import com.eugene.book_service.repository.OutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drains the outbox to Kafka. The events of a batch are sent without waiting for each other, so the
+ * producer groups and compresses them, then the ones acknowledged by the broker are deleted. The
+ * others are left in the outbox and retried by the next run: the consumers may receive an event
+ * twice, never zero times. An event failing too many times is parked: it stays in the outbox, no
+ * longer sent, so it doesn't hold the batches back.
+ */
+@Component
+@ConditionalOnProperty(name = "book.outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay
+{
+    private final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+    
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaEventSender kafkaEventSender;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long sendTimeoutMs;
+    private final int maxAttempts;
+    
+    public OutboxRelay(
+            OutboxEventRepository outboxEventRepository,
+            KafkaEventSender kafkaEventSender,
+            TransactionTemplate transactionTemplate,
+            @Value("${book.outbox.relay.batch-size:500}") int batchSize,
+            @Value("${book.outbox.relay.send-timeout-ms:10000}") long sendTimeoutMs,
+            @Value("${book.outbox.relay.max-attempts:10}") int maxAttempts
+    ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.kafkaEventSender = kafkaEventSender;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.maxAttempts = maxAttempts;
+    }
+    
+    @Scheduled(fixedDelayString = "${book.outbox.relay.delay-ms:500}")
+    public void relay() {
+        Integer sent;
+        do {
+            sent = this.transactionTemplate.execute(status -> relayBatch());
+        } while (sent != null && sent == this.batchSize);
+    }
+    
+    /**
+     * @return the number of events sent.
+     */
+    private int relayBatch() {
+        List<OutboxEvent> events = this.outboxEventRepository.findByParkedAtIsNullOrderByIdAsc(PageRequest.of(0,
+                                                                                                               this.batchSize));
+        if (events.isEmpty()) {
+            return 0;
+        }
+        
+        List<CompletableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>(events.size());
+        try {
+            for (OutboxEvent event : events) {
+                futures.add(this.kafkaEventSender.send(event.getTopic(),
+                                                       event.getKey(),
+                                                       event.getPayload(),
+                                                       event.getFormat()));
+            }
+        } catch (InterruptedException e) {
+            Thread
+                    .currentThread()
+                    .interrupt();
+        }
+        
+        // A single deadline for the whole batch, the rows being locked meanwhile
+        List<OutboxEvent> sentEvents = new ArrayList<>(events.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.sendTimeoutMs);
+        for (int i = 0; i < futures.size(); i++) {
+            OutboxEvent event = events.get(i);
+            try {
+                futures
+                        .get(i)
+                        .get(Math.max(0,
+                                      deadline - System.nanoTime()),
+                             TimeUnit.NANOSECONDS);
+                sentEvents.add(event);
+            } catch (ExecutionException | TimeoutException e) {
+                event.setAttempts(event.getAttempts() + 1);
+                if (event.getAttempts() >= this.maxAttempts) {
+                    event.setParkedAt(Instant.now());
+                    this.log.error("Failed to send the outbox event {} to {} {} times, it is parked.",
+                                   event.getId(),
+                                   event.getTopic(),
+                                   event.getAttempts(),
+                                   e);
+                } else {
+                    this.log.warn("Failed to send the outbox event {} to {} (attempt {}), it will be retried.",
+                                  event.getId(),
+                                  event.getTopic(),
+                                  event.getAttempts(),
+                                  e);
+                }
+            } catch (InterruptedException e) {
+                Thread
+                        .currentThread()
+                        .interrupt();
+                break;
+            }
+        }
+        this.outboxEventRepository.deleteAllInBatch(sentEvents);
+        return sentEvents.size();
+    }
+}
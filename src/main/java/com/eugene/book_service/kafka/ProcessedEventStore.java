@@ -0,0 +1,123 @@
+package com.eugene.book_service.kafka;
+
+import com.eugene.book_service.model.ProcessedEvent;
+import com.eugene.book_service.repository.ProcessedEventRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IDs of the events consumed during the last window, to skip the events redelivered after a
+ * rebalance or a restart. The recent IDs are answered by an in-memory LRU, the older ones and the
+ * ones processed by another instance by the processed_event table, which is purged of the IDs
+ * older than the window. A stored ID is processed whatever its age: until the purge removes it, the
+ * insert of a redelivered event would break its primary key.
+ * The IDs are written in the transaction of the changes of the events, so an event is marked as
+ * processed if and only if its changes are committed.
+ */
+@Component
+public class ProcessedEventStore
+{
+    private final Logger log = LoggerFactory.getLogger(ProcessedEventStore.class);
+    
+    private final ProcessedEventRepository processedEventRepository;
+    private final Duration window;
+    private final Cache<String, Boolean> recentIds;
+    
+    public ProcessedEventStore(
+            ProcessedEventRepository processedEventRepository,
+            @Value("${book.kafka.dedup.window:24h}") Duration window,
+            @Value("${book.kafka.dedup.memory-size:100000}") long memorySize
+    ) {
+        this.processedEventRepository = processedEventRepository;
+        this.window = window;
+        this.recentIds = Caffeine
+                .newBuilder()
+                .maximumSize(memorySize)
+                .expireAfterWrite(window)
+                .build();
+    }
+    
+    /**
+     * @return the IDs among the given ones processed during the window, or before it and not purged
+     * yet.
+     */
+    public Set<String> findProcessed(Collection<String> eventIds) {
+        Set<String> processed = new HashSet<>();
+        List<String> unknown = new ArrayList<>();
+        for (String eventId : eventIds) {
+            if (this.recentIds.getIfPresent(eventId) != null) {
+                processed.add(eventId);
+            } else {
+                unknown.add(eventId);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            Set<String> stored = this.processedEventRepository.findProcessedIds(unknown);
+            stored.forEach(eventId -> this.recentIds.put(eventId,
+                                                         Boolean.TRUE));
+            processed.addAll(stored);
+        }
+        return processed;
+    }
+    
+    /**
+     * Must be called in the transaction applying the events, the IDs are remembered in memory
+     * once it is committed.
+     */
+    @Transactional
+    public void markProcessed(Collection<String> eventIds) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        this.processedEventRepository.saveAll(eventIds
+                                                      .stream()
+                                                      .map(eventId -> new ProcessedEvent(eventId,
+                                                                                         now))
+                                                      .toList());
+        List<String> ids = List.copyOf(eventIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization()
+            {
+                @Override
+                public void afterCommit() {
+                    remember(ids);
+                }
+            });
+        } else {
+            remember(ids);
+        }
+    }
+    
+    private void remember(List<String> eventIds) {
+        eventIds.forEach(eventId -> this.recentIds.put(eventId,
+                                                       Boolean.TRUE));
+    }
+    
+    @Scheduled(fixedDelayString = "${book.kafka.dedup.cleanup-delay-ms:3600000}")
+    @Transactional
+    public void purge() {
+        int deleted = this.processedEventRepository.deleteProcessedBefore(Instant
+                                                                                  .now()
+                                                                                  .minus(this.window));
+        this.log.info("{} processed events older than {} purged.",
+                      deleted,
+                      this.window);
+    }
+}
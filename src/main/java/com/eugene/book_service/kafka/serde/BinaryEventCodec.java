@@ -0,0 +1,271 @@
+package com.eugene.book_service.kafka.serde;
+
+import com.eugene.book_service.dto.event.BaseDtoEvent;
+import com.eugene.book_service.dto.event.BookDtoEvent;
+import com.eugene.book_service.dto.event.ReviewDtoEvent;
+import com.eugene.book_service.dto.event.UserDtoEvent;
+import com.eugene.book_service.exception.EventDecodingException;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.model.ReviewIdSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of the events. Version 2 of the schema:
+ * <pre>
+ * version: byte, kind: byte (1 book, 2 review, 3 user), event type: byte (0 when null)
+ * event ID as a string, timestamp plus one (0 when null)
+ * review only: user ID and ISBN as strings
+ * review IDs: sorted, the first one zigzag encoded then the gaps between them
+ * </pre>
+ * The integers are unsigned varints, and the strings and the collections are prefixed with their
+ * length plus one, zero standing for null. A few thousand close review IDs take one or two bytes each.
+ * Version 1 had no event ID nor timestamp, it is still read.
+ */
+public class BinaryEventCodec
+        implements EventCodec
+{
+    private static final byte VERSION = 2;
+    private static final byte BOOK = 1;
+    private static final byte REVIEW = 2;
+    private static final byte USER = 3;
+    private static final KafkaEventType[] EVENT_TYPES = {null, KafkaEventType.USER_DELETED, KafkaEventType.BOOK_DELETED, KafkaEventType.REVIEWS_CREATED, KafkaEventType.REVIEWS_DELETED};
+    
+    private static int eventTypeCode(KafkaEventType eventType) {
+        for (int i = 1; i < EVENT_TYPES.length; i++) {
+            if (EVENT_TYPES[i] == eventType) {
+                return i;
+            }
+        }
+        return 0;
+    }
+    
+    private static void writeHeader(
+            Writer writer,
+            BaseDtoEvent event
+    ) {
+        writer.write(eventTypeCode(event.getEventType()));
+        writer.writeString(event.getEventId());
+        writer.writeVarLong((event.getTimestamp() == null)
+                                    ? 0
+                                    : event.getTimestamp() + 1);
+    }
+    
+    @Override
+    public EventFormat format() {
+        return EventFormat.BINARY;
+    }
+    
+    @Override
+    public byte[] encode(BaseDtoEvent event) {
+        Writer writer = new Writer();
+        writer.write(VERSION);
+        switch (event) {
+            case BookDtoEvent bookDtoEvent -> {
+                writer.write(BOOK);
+                writeHeader(writer,
+                            event);
+                writer.writeIds(bookDtoEvent.getReviewsIds());
+            }
+            case ReviewDtoEvent reviewDtoEvent -> {
+                writer.write(REVIEW);
+                writeHeader(writer,
+                            event);
+                writer.writeString(reviewDtoEvent.getUserId());
+                writer.writeString(reviewDtoEvent.getIsbn());
+                writer.writeIds(reviewDtoEvent.getReviewsIds());
+            }
+            case UserDtoEvent userDtoEvent -> {
+                writer.write(USER);
+                writeHeader(writer,
+                            event);
+                writer.writeIds(userDtoEvent.getReviewsIds());
+            }
+            default -> throw new IllegalArgumentException("No binary encoding for " + event
+                    .getClass()
+                    .getSimpleName());
+        }
+        return writer.toByteArray();
+    }
+    
+    @Override
+    public <T extends BaseDtoEvent> T decode(
+            byte[] payload,
+            Class<T> type
+    ) {
+        Reader reader = new Reader(payload);
+        int version = reader.read();
+        if (version < 1 || version > VERSION) {
+            throw new EventDecodingException("Unsupported binary event version " + version,
+                                             null);
+        }
+        int kind = reader.read();
+        int eventTypeCode = reader.read();
+        if (eventTypeCode >= EVENT_TYPES.length) {
+            throw new EventDecodingException("Unknown event type " + eventTypeCode,
+                                             null);
+        }
+        KafkaEventType eventType = EVENT_TYPES[eventTypeCode];
+        String eventId = null;
+        long timestamp = 0;
+        if (version >= 2) {
+            eventId = reader.readString();
+            timestamp = reader.readVarLong();
+        }
+        BaseDtoEvent event = switch (kind) {
+            case BOOK -> new BookDtoEvent(eventType,
+                                          reader.readIds());
+            case REVIEW -> new ReviewDtoEvent(eventType,
+                                              reader.readString(),
+                                              reader.readString(),
+                                              reader.readIds());
+            case USER -> new UserDtoEvent(eventType,
+                                          reader.readIds());
+            default -> throw new EventDecodingException("Unknown event kind " + kind,
+                                                        null);
+        };
+        event.setEventId(eventId);
+        event.setTimestamp((timestamp == 0)
+                                   ? null
+                                   : timestamp - 1);
+        if (!type.isInstance(event)) {
+            throw new EventDecodingException("Expected a " + type.getSimpleName() + " but got a " + event
+                    .getClass()
+                    .getSimpleName(),
+                                             null);
+        }
+        return type.cast(event);
+    }
+    
+    /**
+     * Growing buffer, not synchronized unlike the ByteArrayOutputStream.
+     */
+    private static class Writer
+    {
+        private byte[] bytes = new byte[64];
+        private int size;
+        
+        void write(int value) {
+            if (this.size == this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes,
+                                           2 * this.size);
+            }
+            this.bytes[this.size++] = (byte) value;
+        }
+        
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+        
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] stringBytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(stringBytes.length + 1L);
+            for (byte b : stringBytes) {
+                write(b);
+            }
+        }
+        
+        void writeIds(ReviewIdSet ids) {
+            if (ids == null) {
+                writeVarLong(0);
+                return;
+            }
+            int count = ids.size();
+            writeVarLong(count + 1L);
+            if (count == 0) {
+                return;
+            }
+            long previous = ids.get(0);
+            writeVarLong((previous << 1) ^ (previous >> 63));
+            for (int i = 1; i < count; i++) {
+                long id = ids.get(i);
+                writeVarLong(id - previous);
+                previous = id;
+            }
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes,
+                                 this.size);
+        }
+    }
+    
+    private static class Reader
+    {
+        private final byte[] bytes;
+        private int position;
+        
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        
+        int read() {
+            if (this.position >= this.bytes.length) {
+                throw new EventDecodingException("Truncated binary event",
+                                                 null);
+            }
+            return this.bytes[this.position++] & 0xFF;
+        }
+        
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new EventDecodingException("Malformed varint in binary event",
+                                             null);
+        }
+        
+        int readLength() {
+            long length = readVarLong() - 1;
+            if (length > this.bytes.length - this.position) {
+                throw new EventDecodingException("Truncated binary event",
+                                                 null);
+            }
+            return (int) length;
+        }
+        
+        String readString() {
+            int length = readLength();
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(Arrays.copyOfRange(this.bytes,
+                                                         this.position,
+                                                         this.position + length),
+                                      StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+        
+        ReviewIdSet readIds() {
+            int count = readLength();
+            if (count < 0) {
+                return null;
+            }
+            ReviewIdSet.Builder ids = ReviewIdSet.builder(count);
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                long value = readVarLong();
+                previous = (i == 0)
+                        ? (value >>> 1) ^ -(value & 1)
+                        : previous + value;
+                ids.add(previous);
+            }
+            return ids.build();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.eugene.book_service.kafka.serde;
+
+import com.eugene.book_service.dto.event.BaseDtoEvent;
+
+public interface EventCodec
+{
+    EventFormat format();
+    
+    byte[] encode(BaseDtoEvent event);
+    
+    <T extends BaseDtoEvent> T decode(
+            byte[] payload,
+            Class<T> type
+    );
+}
@@ -0,0 +1,31 @@
+package com.eugene.book_service.kafka.serde;
+
+/**
+ * Encoding of an event, written in the header of its record so the formats can coexist on a topic.
+ */
+public enum EventFormat
+{
+    JSON("json"), BINARY("binary");
+    
+    private final String headerValue;
+    
+    EventFormat(String headerValue) {
+        this.headerValue = headerValue;
+    }
+    
+    /**
+     * @return the format of the header value, JSON when there is no header.
+     */
+    public static EventFormat fromHeader(String headerValue) {
+        for (EventFormat format : values()) {
+            if (format.headerValue.equals(headerValue)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+    
+    public String getHeaderValue() {
+        return this.headerValue;
+    }
+}
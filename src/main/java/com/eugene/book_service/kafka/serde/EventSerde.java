@@ -0,0 +1,94 @@
+package com.eugene.book_service.kafka.serde;
+
+import com.eugene.book_service.dto.event.BaseDtoEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the events in the configured format and decodes them in the format named by the header
+ * of their record. The records without the header are the JSON ones, so the producers can switch
+ * format one after the other. The JSON records keep the wire form of the former JsonSerializer,
+ * headers included, so only the binary ones carry the header.
+ */
+@Component
+public class EventSerde
+{
+    public static final String FORMAT_HEADER = "event-format";
+    
+    private final Map<EventFormat, EventCodec> codecs = new EnumMap<>(EventFormat.class);
+    private final EventFormat writeFormat;
+    
+    public EventSerde(@Value("${book.kafka.event-format:json}") String writeFormat) {
+        List
+                .of(new JsonEventCodec(),
+                    new BinaryEventCodec())
+                .forEach(codec -> this.codecs.put(codec.format(),
+                                                  codec));
+        this.writeFormat = EventFormat.fromHeader(writeFormat);
+    }
+    
+    /**
+     * Adds the headers of a record of the format: the type header of the JsonSerializer for JSON,
+     * the format header otherwise.
+     */
+    public static void addHeaders(
+            Headers headers,
+            String format
+    ) {
+        if (EventFormat.fromHeader(format) == EventFormat.JSON) {
+            headers.add(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME,
+                        String.class
+                                .getName()
+                                .getBytes(StandardCharsets.UTF_8));
+        } else {
+            headers.add(FORMAT_HEADER,
+                        format.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    public EventFormat writeFormat() {
+        return this.writeFormat;
+    }
+    
+    public byte[] encode(BaseDtoEvent event) {
+        return this.codecs
+                .get(this.writeFormat)
+                .encode(event);
+    }
+    
+    public <T extends BaseDtoEvent> T decode(
+            ConsumerRecord<String, byte[]> record,
+            Class<T> type
+    ) {
+        Header header = record
+                .headers()
+                .lastHeader(FORMAT_HEADER);
+        String format = (header == null)
+                ? null
+                : new String(header.value(),
+                             StandardCharsets.UTF_8);
+        return decode(record.value(),
+                      format,
+                      type);
+    }
+    
+    public <T extends BaseDtoEvent> T decode(
+            byte[] payload,
+            String format,
+            Class<T> type
+    ) {
+        return this.codecs
+                .get(EventFormat.fromHeader(format))
+                .decode(payload,
+                        type);
+    }
+}
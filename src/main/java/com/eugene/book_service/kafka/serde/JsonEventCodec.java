@@ -0,0 +1,54 @@
+package com.eugene.book_service.kafka.serde;
+
+import com.eugene.book_service.dto.event.BaseDtoEvent;
+import com.eugene.book_service.exception.JsonException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Writes the events as the JsonSerializer of Spring did before the codecs: a JSON string wrapping the
+ * JSON of the event, so the consumers reading the JSON events see no change.
+ */
+public class JsonEventCodec
+        implements EventCodec
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Override
+    public EventFormat format() {
+        return EventFormat.JSON;
+    }
+    
+    @Override
+    public byte[] encode(BaseDtoEvent event) {
+        try {
+            return this.objectMapper.writeValueAsBytes(this.objectMapper.writeValueAsString(event));
+        } catch (IOException e) {
+            throw new JsonException("Failed to serialize the event",
+                                    e);
+        }
+    }
+    
+    /**
+     * The wrapped events are unwrapped first, the plain JSON ones are read as they are.
+     */
+    @Override
+    public <T extends BaseDtoEvent> T decode(
+            byte[] payload,
+            Class<T> type
+    ) {
+        try {
+            if (payload.length > 0 && payload[0] == '"') {
+                return this.objectMapper.readValue(this.objectMapper.readValue(payload,
+                                                                               String.class),
+                                                   type);
+            }
+            return this.objectMapper.readValue(payload,
+                                               type);
+        } catch (IOException e) {
+            throw new JsonException("Failed to deserialize the event",
+                                    e);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.eugene.book_service.model;
 
 import com.eugene.book_service.dto.BookDetailsDto;
+import com.eugene.book_service.dto.BookSummaryDto;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -29,11 +32,33 @@ public class Book
     @Column(unique = true, nullable = false)
     private String url;
     
+    /**
+     * Incremented on each change of the details of the book, its categories and review IDs
+     * included, and exposed as its ETag. The rows written without the entity increment it
+     * explicitly.
+     */
+    @Version
+    @ColumnDefault("0")
+    private Long version;
+    
+    /**
+     * The collections are loaded in batches for all the books of the persistence context,
+     * so listing N books costs a constant number of queries instead of 1 + 2N.
+     */
     @ManyToMany
+    @BatchSize(size = 100)
     @JoinTable(name = "book_category", joinColumns = @JoinColumn(name = "book_id"), inverseJoinColumns = @JoinColumn(name = "category_id"))
     private Set<Category> categories;
     
+    /**
+     * The review IDs are indexed, so the books of the deleted reviews are found and updated
+     * without scanning the catalog. A review ID is unique per book, the new ones are appended by
+     * the BookReviewsRepository without loading the collection.
+     */
     @ElementCollection
+    @BatchSize(size = 100)
+    @CollectionTable(name = "book_reviews_ids", joinColumns = @JoinColumn(name = "book_isbn"), indexes = @Index(name = "idx_book_reviews_ids_reviews_ids", columnList = "reviews_ids"), uniqueConstraints = @UniqueConstraint(name = "uk_book_reviews_ids_book_isbn_reviews_ids", columnNames = {"book_isbn", "reviews_ids"}))
+    @Column(name = "reviews_ids")
     private Set<Long> reviewsIds;
     
     public Book(
@@ -62,6 +87,16 @@ public class Book
                                   this.author,
                                   this.url,
                                   categoriesName,
-                                  this.reviewsIds);
+                                  ReviewIdSet.copyOf(this.reviewsIds),
+                                  this.version);
+    }
+    
+    public BookSummaryDto toBookSummaryDto() {
+        return new BookSummaryDto(this.isbn,
+                                  this.title,
+                                  this.description,
+                                  this.author,
+                                  this.url,
+                                  this.version);
     }
 }
@@ -5,6 +5,7 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.Set;
 
@@ -22,6 +23,11 @@ public class Category
     @Column(unique = true, nullable = false)
     private String name;
     
+    @Version
+    @ColumnDefault("0")
+    @JsonIgnore  // Exposed as the ETag
+    private Long version;
+    
     @ManyToMany(mappedBy = "categories")
     @JsonIgnore  // Prevents infinite recursion when getting the category
     private Set<Book> books;
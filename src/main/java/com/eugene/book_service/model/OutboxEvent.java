@@ -0,0 +1,58 @@
+package com.eugene.book_service.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Event waiting to be sent to Kafka. It is written in the transaction of the change it describes,
+ * so it is sent if and only if the change is committed, and the OutboxRelay deletes it once sent.
+ */
+@Entity
+@Table(name = "outbox_event")
+@Setter
+@Getter
+@NoArgsConstructor
+public class OutboxEvent
+{
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(nullable = false)
+    private String topic;
+    
+    @Column(name = "event_key")
+    private String key;
+    
+    @Column(nullable = false, length = 100_000)
+    private byte[] payload;
+    
+    // Header value of the EventFormat of the payload
+    @Column(nullable = false)
+    private String format;
+    
+    @Column(nullable = false)
+    private Instant createdAt;
+    
+    private int attempts;
+    
+    // Set once the attempts reached the maximum of the OutboxRelay, the event is no longer sent
+    private Instant parkedAt;
+    
+    public OutboxEvent(
+            String topic,
+            String key,
+            byte[] payload,
+            String format
+    ) {
+        this.topic = topic;
+        this.key = key;
+        this.payload = payload;
+        this.format = format;
+        this.createdAt = Instant.now();
+    }
+}
@@ -0,0 +1,49 @@
+package com.eugene.book_service.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * ID of an event already consumed, kept for the dedup window of the ProcessedEventStore.
+ * The ID is assigned, so the entity tells Spring Data it is new and is inserted without a select.
+ */
+@Entity
+@Table(name = "processed_event", indexes = @Index(name = "idx_processed_event_processed_at", columnList = "processed_at"))
+@Getter
+@NoArgsConstructor
+public class ProcessedEvent
+        implements Persistable<String>
+{
+    @Id
+    @Column(length = 64)
+    private String id;
+    
+    @Column(nullable = false)
+    private Instant processedAt;
+    
+    @Transient
+    private boolean isNew = true;
+    
+    public ProcessedEvent(
+            String id,
+            Instant processedAt
+    ) {
+        this.id = id;
+        this.processedAt = processedAt;
+    }
+    
+    @Override
+    public boolean isNew() {
+        return this.isNew;
+    }
+    
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
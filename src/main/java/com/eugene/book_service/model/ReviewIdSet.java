@@ -0,0 +1,195 @@
+package com.eugene.book_service.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Immutable set of review IDs, kept as a sorted array of primitive longs.
+ * A boxed set of 50k IDs takes megabytes of Long objects and hash entries, this one takes 8 bytes per
+ * ID. The lookups are binary searches. It is written in JSON as a plain array of numbers, so the
+ * clients see the same document as with a set.
+ */
+public final class ReviewIdSet
+{
+    private static final ReviewIdSet EMPTY = new ReviewIdSet(new long[0]);
+    
+    private final long[] ids;
+    
+    private ReviewIdSet(long[] ids) {
+        this.ids = ids;
+    }
+    
+    public static ReviewIdSet empty() {
+        return EMPTY;
+    }
+    
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static ReviewIdSet of(long... ids) {
+        Builder builder = builder(ids.length);
+        for (long id : ids) {
+            builder.add(id);
+        }
+        return builder.build();
+    }
+    
+    public static ReviewIdSet copyOf(Collection<Long> ids) {
+        if (ids == null) {
+            return null;
+        }
+        Builder builder = builder(ids.size());
+        for (Long id : ids) {
+            builder.add(id);
+        }
+        return builder.build();
+    }
+    
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+    
+    public int size() {
+        return this.ids.length;
+    }
+    
+    public boolean isEmpty() {
+        return this.ids.length == 0;
+    }
+    
+    public boolean contains(long id) {
+        return Arrays.binarySearch(this.ids,
+                                   id) >= 0;
+    }
+    
+    /**
+     * @return the ID at the given rank, in ascending order.
+     */
+    public long get(int index) {
+        return this.ids[index];
+    }
+    
+    public void forEach(LongConsumer action) {
+        for (long id : this.ids) {
+            action.accept(id);
+        }
+    }
+    
+    /**
+     * @return the IDs in ascending sets of at most the given size, none when this set is empty.
+     */
+    public List<ReviewIdSet> split(int maxSize) {
+        List<ReviewIdSet> parts = new ArrayList<>();
+        for (int from = 0; from < this.ids.length; from += maxSize) {
+            parts.add(new ReviewIdSet(Arrays.copyOfRange(this.ids,
+                                                         from,
+                                                         Math.min(from + maxSize,
+                                                                  this.ids.length))));
+        }
+        return parts;
+    }
+    
+    @JsonValue
+    public long[] toArray() {
+        return this.ids.clone();
+    }
+    
+    /**
+     * Boxed view for the APIs which take collections, such as the query parameters. The IDs are only
+     * boxed when read.
+     */
+    public List<Long> asList() {
+        return new AbstractList<>()
+        {
+            @Override
+            public Long get(int index) {
+                return ReviewIdSet.this.ids[index];
+            }
+            
+            @Override
+            public int size() {
+                return ReviewIdSet.this.ids.length;
+            }
+        };
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof ReviewIdSet other && Arrays.equals(this.ids,
+                                                                             other.ids));
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.ids);
+    }
+    
+    @Override
+    public String toString() {
+        return Arrays.toString(this.ids);
+    }
+    
+    /**
+     * Collects IDs in any order and with duplicates. The array is only sorted when the IDs were not
+     * added in order.
+     */
+    public static final class Builder
+    {
+        private long[] ids;
+        private int size;
+        private boolean sorted = true;
+        
+        private Builder(int expectedSize) {
+            this.ids = new long[Math.max(expectedSize,
+                                         4)];
+        }
+        
+        public Builder add(long id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids,
+                                         this.size * 2);
+            }
+            if (this.size > 0 && id <= this.ids[this.size - 1]) {
+                this.sorted = false;
+            }
+            this.ids[this.size++] = id;
+            return this;
+        }
+        
+        public boolean isEmpty() {
+            return this.size == 0;
+        }
+        
+        public ReviewIdSet build() {
+            if (this.size == 0) {
+                return EMPTY;
+            }
+            if (!this.sorted) {
+                Arrays.sort(this.ids,
+                            0,
+                            this.size);
+                int distinct = 1;
+                for (int i = 1; i < this.size; i++) {
+                    if (this.ids[i] != this.ids[distinct - 1]) {
+                        this.ids[distinct++] = this.ids[i];
+                    }
+                }
+                this.size = distinct;
+                this.sorted = true;
+            }
+            long[] result = (this.size == this.ids.length)
+                    ? this.ids
+                    : Arrays.copyOf(this.ids,
+                                    this.size);
+            // The array is now owned by the set
+            this.ids = new long[4];
+            this.size = 0;
+            return new ReviewIdSet(result);
+        }
+    }
+}
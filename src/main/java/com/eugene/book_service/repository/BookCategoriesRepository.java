@@ -0,0 +1,61 @@
+package com.eugene.book_service.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes of the categories of a book, row by row.
+ * Replacing the collection of the entity deletes and inserts all its rows again, so a change of the
+ * categories is applied as the difference with the rows already there.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BookCategoriesRepository
+{
+    private static final String SELECT_CATEGORIES_IDS = "SELECT category_id FROM book_category WHERE book_id = ?";
+    private static final String INSERT_CATEGORY = "INSERT INTO book_category (book_id, category_id) VALUES (?, ?)";
+    private static final String DELETE_CATEGORY = "DELETE FROM book_category WHERE book_id = ? AND category_id = ?";
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    /**
+     * @return true if a category was added or removed.
+     */
+    public boolean replaceCategories(
+            String isbn,
+            Set<Long> categoriesIds
+    ) {
+        Set<Long> currentIds = new HashSet<>(this.jdbcTemplate.queryForList(SELECT_CATEGORIES_IDS,
+                                                                            Long.class,
+                                                                            isbn));
+        // Sorted so that concurrent updates lock the rows in the same order
+        List<Object[]> removedRows = new ArrayList<>();
+        currentIds
+                .stream()
+                .filter(categoryId -> !categoriesIds.contains(categoryId))
+                .sorted()
+                .forEach(categoryId -> removedRows.add(new Object[]{isbn, categoryId}));
+        List<Object[]> addedRows = new ArrayList<>();
+        categoriesIds
+                .stream()
+                .filter(categoryId -> !currentIds.contains(categoryId))
+                .sorted()
+                .forEach(categoryId -> addedRows.add(new Object[]{isbn, categoryId}));
+        
+        if (!removedRows.isEmpty()) {
+            this.jdbcTemplate.batchUpdate(DELETE_CATEGORY,
+                                          removedRows);
+        }
+        if (!addedRows.isEmpty()) {
+            this.jdbcTemplate.batchUpdate(INSERT_CATEGORY,
+                                          addedRows);
+        }
+        return !removedRows.isEmpty() || !addedRows.isEmpty();
+    }
+}
@@ -0,0 +1,272 @@
+package com.eugene.book_service.repository;
+
+import com.eugene.book_service.dto.BookDetailsDto;
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.ReviewIdSet;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Read model of the books.
+ * The queries select scalar columns and tuples straight into the DTOs, so no entity is ever
+ * hydrated nor added to the persistence context. A page of books always costs three queries:
+ * the books, their categories and their review IDs.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BookReadRepository
+{
+    private static final String SELECT_SUMMARY = "select new com.eugene.book_service.dto.BookSummaryDto(b.isbn, b.title, b.description, b.author, b.url, b.version) from Book b ";
+    private static final int CHUNK_SIZE = 500;
+    
+    private final EntityManager entityManager;
+    
+    public Optional<BookDetailsDto> findDetailsByIsbn(String isbn) {
+        return findDetailsByIsbns(List.of(isbn))
+                .stream()
+                .findFirst();
+    }
+    
+    public List<BookDetailsDto> findDetailsByIsbns(Collection<String> isbns) {
+        return toDetails(findSummariesByIsbns(isbns));
+    }
+    
+    public List<BookSummaryDto> findSummariesByIsbns(Collection<String> isbns) {
+        List<String> sortedIsbns = isbns
+                .stream()
+                .sorted()
+                .toList();
+        List<BookSummaryDto> summaries = new ArrayList<>(sortedIsbns.size());
+        for (int from = 0; from < sortedIsbns.size(); from += CHUNK_SIZE) {
+            summaries.addAll(this.entityManager
+                                     .createQuery(SELECT_SUMMARY + "where b.isbn in :isbns order by b.isbn",
+                                                  BookSummaryDto.class)
+                                     .setParameter("isbns",
+                                                   sortedIsbns.subList(from,
+                                                                       Math.min(from + CHUNK_SIZE,
+                                                                                sortedIsbns.size())))
+                                     .getResultList());
+        }
+        return summaries;
+    }
+    
+    /**
+     * @return the review IDs of all the books, merged.
+     */
+    public ReviewIdSet findReviewsIdsByIsbns(Collection<String> isbns) {
+        List<String> sortedIsbns = isbns
+                .stream()
+                .sorted()
+                .toList();
+        ReviewIdSet.Builder reviewsIds = ReviewIdSet.builder(16 * sortedIsbns.size());
+        for (int from = 0; from < sortedIsbns.size(); from += CHUNK_SIZE) {
+            this.entityManager
+                    .createQuery("select r from Book b join b.reviewsIds r where b.isbn in :isbns",
+                                 Long.class)
+                    .setParameter("isbns",
+                                  sortedIsbns.subList(from,
+                                                      Math.min(from + CHUNK_SIZE,
+                                                               sortedIsbns.size())))
+                    .getResultList()
+                    .forEach(reviewsIds::add);
+        }
+        return reviewsIds.build();
+    }
+    
+    public Set<String> findExistingIsbns(Collection<String> isbns) {
+        return findExisting("select b.isbn from Book b where b.isbn in :values",
+                            isbns);
+    }
+    
+    public Set<String> findExistingUrls(Collection<String> urls) {
+        return findExisting("select b.url from Book b where b.url in :values",
+                            urls);
+    }
+    
+    private Set<String> findExisting(
+            String query,
+            Collection<String> values
+    ) {
+        List<String> sortedValues = values
+                .stream()
+                .sorted()
+                .toList();
+        Set<String> existingValues = new HashSet<>();
+        for (int from = 0; from < sortedValues.size(); from += CHUNK_SIZE) {
+            existingValues.addAll(this.entityManager
+                                          .createQuery(query,
+                                                       String.class)
+                                          .setParameter("values",
+                                                        sortedValues.subList(from,
+                                                                             Math.min(from + CHUNK_SIZE,
+                                                                                      sortedValues.size())))
+                                          .getResultList());
+        }
+        return existingValues;
+    }
+    
+    /**
+     * Keyset pagination: the books are read after the last ISBN of the previous page,
+     * so the cost of a page doesn't depend on its position in the catalog.
+     */
+    public List<BookDetailsDto> findDetailsAfter(
+            String lastIsbn,
+            int limit
+    ) {
+        List<BookSummaryDto> summaries = this.entityManager
+                .createQuery(SELECT_SUMMARY + "where b.isbn > :lastIsbn order by b.isbn",
+                             BookSummaryDto.class)
+                .setParameter("lastIsbn",
+                              lastIsbn)
+                .setMaxResults(limit)
+                .getResultList();
+        return toDetails(summaries);
+    }
+    
+    public List<BookDetailsDto> findAllDetails(
+            Specification<Book> specification,
+            int limit
+    ) {
+        CriteriaBuilder criteriaBuilder = this.entityManager.getCriteriaBuilder();
+        CriteriaQuery<BookSummaryDto> query = criteriaBuilder.createQuery(BookSummaryDto.class);
+        Root<Book> root = query.from(Book.class);
+        query.select(criteriaBuilder.construct(BookSummaryDto.class,
+                                               root.get("isbn"),
+                                               root.get("title"),
+                                               root.get("description"),
+                                               root.get("author"),
+                                               root.get("url"),
+                                               root.get("version")));
+        Predicate predicate = specification.toPredicate(root,
+                                                        query,
+                                                        criteriaBuilder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(criteriaBuilder.asc(root.get("isbn")));
+        
+        return toDetails(this.entityManager
+                                 .createQuery(query)
+                                 .setMaxResults(limit)
+                                 .getResultList());
+    }
+    
+    public long countBooks() {
+        return this.entityManager
+                .createQuery("select count(b) from Book b",
+                             Long.class)
+                .getSingleResult();
+    }
+    
+    @Transactional(readOnly = true)
+    public void streamAllIsbns(Consumer<String> consumer) {
+        try (Stream<String> isbns = this.entityManager
+                .createQuery("select b.isbn from Book b",
+                             String.class)
+                .setHint(AvailableHints.HINT_FETCH_SIZE,
+                         CHUNK_SIZE)
+                .getResultStream()) {
+            isbns.forEach(consumer);
+        }
+    }
+    
+    /**
+     * The summaries are read with a server side cursor, so the memory stays flat.
+     */
+    @Transactional(readOnly = true)
+    public void streamAllSummaries(Consumer<BookSummaryDto> consumer) {
+        try (Stream<BookSummaryDto> summaries = this.entityManager
+                .createQuery(SELECT_SUMMARY + "order by b.isbn",
+                             BookSummaryDto.class)
+                .setHint(AvailableHints.HINT_FETCH_SIZE,
+                         CHUNK_SIZE)
+                .getResultStream()) {
+            summaries.forEach(consumer);
+        }
+    }
+    
+    /**
+     * The collections are loaded chunk by chunk while the summaries are streamed.
+     */
+    @Transactional(readOnly = true)
+    public void streamAllDetails(Consumer<BookDetailsDto> consumer) {
+        List<BookSummaryDto> chunk = new ArrayList<>(CHUNK_SIZE);
+        streamAllSummaries(summary -> {
+            chunk.add(summary);
+            if (chunk.size() == CHUNK_SIZE) {
+                toDetails(chunk).forEach(consumer);
+                chunk.clear();
+            }
+        });
+        toDetails(chunk).forEach(consumer);
+    }
+    
+    private List<BookDetailsDto> toDetails(List<BookSummaryDto> summaries) {
+        Map<String, BookDetailsDto> details = new LinkedHashMap<>();
+        summaries.forEach(summary -> details.put(summary.getIsbn(),
+                                                 new BookDetailsDto(summary.getIsbn(),
+                                                                    summary.getTitle(),
+                                                                    summary.getDescription(),
+                                                                    summary.getAuthor(),
+                                                                    summary.getUrl(),
+                                                                    new HashSet<>(),
+                                                                    ReviewIdSet.empty(),
+                                                                    summary.getVersion())));
+        // The review IDs are collected as primitives, ordered so that they need no sort
+        Map<String, ReviewIdSet.Builder> reviewsIds = new HashMap<>();
+        
+        List<String> isbns = new ArrayList<>(details.keySet());
+        for (int from = 0; from < isbns.size(); from += CHUNK_SIZE) {
+            List<String> chunk = isbns.subList(from,
+                                               Math.min(from + CHUNK_SIZE,
+                                                        isbns.size()));
+            
+            selectTuples("select b.isbn, c.name from Book b join b.categories c where b.isbn in :isbns",
+                         chunk).forEach(tuple -> details
+                    .get(tuple.get(0,
+                                   String.class))
+                    .getCategories()
+                    .add(tuple.get(1,
+                                   String.class)));
+            
+            selectTuples("select b.isbn, r from Book b join b.reviewsIds r where b.isbn in :isbns order by r",
+                         chunk).forEach(tuple -> reviewsIds
+                    .computeIfAbsent(tuple.get(0,
+                                               String.class),
+                                     isbn -> ReviewIdSet.builder(16))
+                    .add(tuple.get(1,
+                                   Long.class)));
+        }
+        reviewsIds.forEach((isbn, builder) -> details
+                .get(isbn)
+                .setReviewsIds(builder.build()));
+        
+        return new ArrayList<>(details.values());
+    }
+    
+    private List<Tuple> selectTuples(
+            String jpql,
+            List<String> isbns
+    ) {
+        return this.entityManager
+                .createQuery(jpql,
+                             Tuple.class)
+                .setParameter("isbns",
+                              isbns)
+                .getResultList();
+    }
+}
@@ -1,10 +1,54 @@
 package com.eugene.book_service.repository;
 
 import com.eugene.book_service.model.Book;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
 
 public interface BookRepository
         extends JpaRepository<Book, String>, JpaSpecificationExecutor<Book>
 {
+    @Query(value = "SELECT DISTINCT book_isbn FROM book_reviews_ids WHERE reviews_ids IN (:reviewsIds)", nativeQuery = true)
+    Set<String> findIsbnsByReviewsIds(@Param("reviewsIds") Collection<Long> reviewsIds);
+    
+    @Modifying
+    @Query(value = "DELETE FROM book_reviews_ids WHERE reviews_ids IN (:reviewsIds)", nativeQuery = true)
+    int deleteReviewsByIds(@Param("reviewsIds") Collection<Long> reviewsIds);
+    
+    /**
+     * The book is locked until the end of the transaction, so the reviews appended or deleted
+     * meanwhile wait for it.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM Book b WHERE b.isbn = :isbn")
+    Optional<Book> findForUpdateByIsbn(@Param("isbn") String isbn);
+    
+    @Query("SELECT b.version FROM Book b WHERE b.isbn = :isbn")
+    Optional<Long> findVersionByIsbn(@Param("isbn") String isbn);
+    
+    /**
+     * @return 0 when the book is no longer at the version.
+     */
+    @Modifying
+    @Query(value = "UPDATE book SET version = version + 1 WHERE isbn = :isbn AND version = :version", nativeQuery = true)
+    int incrementVersion(
+            @Param("isbn") String isbn,
+            @Param("version") long version
+    );
+    
+    @Modifying
+    @Query(value = "UPDATE book SET version = version + 1 WHERE isbn IN (:isbns)", nativeQuery = true)
+    int incrementVersions(@Param("isbns") Collection<String> isbns);
+    
+    @Modifying
+    @Query(value = "UPDATE book SET version = version + 1 WHERE isbn IN (SELECT book_id FROM book_category WHERE category_id = :categoryId)", nativeQuery = true)
+    int incrementVersionsByCategoryId(@Param("categoryId") long categoryId);
 }
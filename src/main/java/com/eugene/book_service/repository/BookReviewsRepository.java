@@ -0,0 +1,100 @@
+package com.eugene.book_service.repository;
+
+import com.eugene.book_service.model.ReviewIdSet;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Append-only writes of the review IDs of the books.
+ * The new IDs are inserted in JDBC batches straight from their primitive arrays, without loading the
+ * books nor their collections, so adding a review costs one row whatever the number of reviews of
+ * the book. The IDs already there and the ones of unknown books are skipped by the statement itself.
+ * The version of the books which got new IDs is incremented, as their details changed.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BookReviewsRepository
+{
+    private static final String INSERT_REVIEW_ID = "INSERT INTO book_reviews_ids (book_isbn, reviews_ids) SELECT b.isbn, ? FROM book b WHERE b.isbn = ? ON CONFLICT DO NOTHING";
+    private static final String INCREMENT_VERSION = "UPDATE book SET version = version + 1 WHERE isbn = ?";
+    private static final int BATCH_SIZE = 500;
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    /**
+     * @param reviewsIdsByIsbn the new review IDs of each book.
+     * @return the ISBNs of the books which got new review IDs.
+     */
+    public Set<String> addReviewsIds(Map<String, ReviewIdSet> reviewsIdsByIsbn) {
+        // Sorted by ISBN then ID so that concurrent batches lock the rows in the same order
+        List<String> sortedIsbns = new ArrayList<>(reviewsIdsByIsbn.keySet());
+        sortedIsbns.removeIf(Objects::isNull);
+        Collections.sort(sortedIsbns);
+        int rowCount = 0;
+        for (String isbn : sortedIsbns) {
+            rowCount += reviewsIdsByIsbn
+                    .get(isbn)
+                    .size();
+        }
+        String[] isbns = new String[rowCount];
+        long[] reviewsIds = new long[rowCount];
+        int row = 0;
+        for (String isbn : sortedIsbns) {
+            ReviewIdSet ids = reviewsIdsByIsbn.get(isbn);
+            for (int i = 0; i < ids.size(); i++) {
+                isbns[row] = isbn;
+                reviewsIds[row++] = ids.get(i);
+            }
+        }
+        
+        Set<String> changedIsbns = new HashSet<>();
+        for (int from = 0; from < rowCount; from += BATCH_SIZE) {
+            int offset = from;
+            int size = Math.min(BATCH_SIZE,
+                                rowCount - from);
+            int[] counts = this.jdbcTemplate.batchUpdate(INSERT_REVIEW_ID,
+                                                         new BatchPreparedStatementSetter()
+                                                         {
+                                                             @Override
+                                                             public void setValues(
+                                                                     PreparedStatement statement,
+                                                                     int i
+                                                             ) throws SQLException {
+                                                                 statement.setLong(1,
+                                                                                   reviewsIds[offset + i]);
+                                                                 statement.setString(2,
+                                                                                     isbns[offset + i]);
+                                                             }
+                                                             
+                                                             @Override
+                                                             public int getBatchSize() {
+                                                                 return size;
+                                                             }
+                                                         });
+            for (int i = 0; i < counts.length; i++) {
+                // Drivers which don't report the count of each statement are taken at their word
+                if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                    changedIsbns.add(isbns[offset + i]);
+                }
+            }
+        }
+        
+        if (!changedIsbns.isEmpty()) {
+            List<Object[]> versionRows = new ArrayList<>(changedIsbns.size());
+            changedIsbns
+                    .stream()
+                    .sorted()
+                    .forEach(isbn -> versionRows.add(new Object[]{isbn}));
+            this.jdbcTemplate.batchUpdate(INCREMENT_VERSION,
+                                          versionRows);
+        }
+        return changedIsbns;
+    }
+}
@@ -0,0 +1,86 @@
+package com.eugene.book_service.repository;
+
+import com.eugene.book_service.model.Book;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Inserts and bulk deletes of books.
+ * The books are persisted rather than saved: save merges a book whose ISBN is assigned, which
+ * selects it first, while persist only queues its insert. The inserts of a flush are grouped in
+ * JDBC batches by Hibernate.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BookWriteRepository
+{
+    private static final int DELETE_CHUNK_SIZE = 500;
+    
+    private final EntityManager entityManager;
+    
+    /**
+     * The book and its categories are written at once, so the constraint violations are raised
+     * here rather than at the commit.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void insert(Book book) {
+        this.entityManager.persist(book);
+        this.entityManager.flush();
+    }
+    
+    /**
+     * The persistence context is cleared once the books are written, so a long import doesn't
+     * accumulate entities in it.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void insertAll(List<Book> books) {
+        books.forEach(this.entityManager::persist);
+        this.entityManager.flush();
+        this.entityManager.clear();
+    }
+    
+    /**
+     * The books are deleted without being loaded, with three statements per chunk of ISBNs: their
+     * review IDs, their categories, then the books. The ISBNs are sorted so that concurrent deletes
+     * lock the rows in the same order.
+     *
+     * @return the number of books deleted.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int deleteAllByIsbns(Collection<String> isbns) {
+        List<String> sortedIsbns = isbns
+                .stream()
+                .sorted()
+                .toList();
+        int count = 0;
+        for (int from = 0; from < sortedIsbns.size(); from += DELETE_CHUNK_SIZE) {
+            List<String> chunk = sortedIsbns.subList(from,
+                                                     Math.min(from + DELETE_CHUNK_SIZE,
+                                                              sortedIsbns.size()));
+            executeUpdate("DELETE FROM book_reviews_ids WHERE book_isbn IN (:isbns)",
+                          chunk);
+            executeUpdate("DELETE FROM book_category WHERE book_id IN (:isbns)",
+                          chunk);
+            count += executeUpdate("DELETE FROM book WHERE isbn IN (:isbns)",
+                                   chunk);
+        }
+        return count;
+    }
+    
+    private int executeUpdate(
+            String sql,
+            List<String> isbns
+    ) {
+        return this.entityManager
+                .createNativeQuery(sql)
+                .setParameter("isbns",
+                              isbns)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,22 @@
+package com.eugene.book_service.repository;
+
+import com.eugene.book_service.model.OutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.List;
+
+public interface OutboxEventRepository
+        extends JpaRepository<OutboxEvent, Long>
+{
+    /**
+     * The oldest events not parked, locked with SKIP LOCKED so several instances drain different events.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    List<OutboxEvent> findByParkedAtIsNullOrderByIdAsc(Pageable pageable);
+}
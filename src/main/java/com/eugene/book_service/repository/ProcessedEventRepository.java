@@ -0,0 +1,22 @@
+package com.eugene.book_service.repository;
+
+import com.eugene.book_service.model.ProcessedEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+
+public interface ProcessedEventRepository
+        extends JpaRepository<ProcessedEvent, String>
+{
+    @Query("SELECT p.id FROM ProcessedEvent p WHERE p.id IN :ids")
+    Set<String> findProcessedIds(@Param("ids") Collection<String> ids);
+    
+    @Modifying
+    @Query("DELETE FROM ProcessedEvent p WHERE p.processedAt < :before")
+    int deleteProcessedBefore(@Param("before") Instant before);
+}
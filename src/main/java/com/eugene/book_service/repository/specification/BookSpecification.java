@@ -4,6 +4,8 @@ import com.eugene.book_service.dto.BookDto;
 import com.eugene.book_service.model.Book;
 import org.springframework.data.jpa.domain.Specification;
 
+import java.util.Locale;
+
 public class BookSpecification
 {
     private BookSpecification() {
@@ -18,23 +20,33 @@ public class BookSpecification
     }
     
     public static Specification<Book> filterByIsbn(String isbn) {
-        return ((root, query, criteriaBuilder) -> (isbn != null && !isbn.isBlank())
-                ? criteriaBuilder.like(root.get("isbn"),
-                                       "%" + isbn + "%")
-                : criteriaBuilder.disjunction());
+        return containsIgnoringCase("isbn",
+                                    isbn);
     }
     
     public static Specification<Book> filterByTitle(String title) {
-        return ((root, query, criteriaBuilder) -> (title != null && !title.isBlank())
-                ? criteriaBuilder.like(root.get("title"),
-                                       "%" + title + "%")
-                : criteriaBuilder.disjunction());
+        return containsIgnoringCase("title",
+                                    title);
     }
     
     public static Specification<Book> filterByAuthor(String author) {
-        return ((root, query, criteriaBuilder) -> (author != null && !author.isBlank())
-                ? criteriaBuilder.like(root.get("author"),
-                                       "%" + author + "%")
+        return containsIgnoringCase("author",
+                                    author);
+    }
+    
+    /**
+     * The column and the term are both lower cased, as the search index matches the normalized
+     * texts. The accents are kept, their removal depends on the database.
+     */
+    private static Specification<Book> containsIgnoringCase(
+            String attribute,
+            String term
+    ) {
+        return ((root, query, criteriaBuilder) -> (term != null && !term.isBlank())
+                ? criteriaBuilder.like(criteriaBuilder.lower(root.get(attribute)),
+                                       "%" + term
+                                               .trim()
+                                               .toLowerCase(Locale.ROOT) + "%")
                 : criteriaBuilder.disjunction());
     }
 }
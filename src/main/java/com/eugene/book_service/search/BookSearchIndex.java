@@ -0,0 +1,354 @@
+package com.eugene.book_service.search;
+
+import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.service.BookChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index of the trigrams of the ISBN, the title and the author of the books.
+ * A search term of at least three characters is resolved by intersecting the postings of its
+ * trigrams, then the candidates are checked against the indexed text, so the cost of a search
+ * depends on the number of matches and not on the size of the catalog.
+ * The matches are scored by relevance and only the best ones are kept in a bounded heap.
+ * The index is built when the application is ready and follows the committed changes of the
+ * BookService. The searches fall back to the database until it is ready.
+ * The changes made by the other instances publish no event here: the index is rebuilt periodically
+ * in the background, the current one answering meanwhile, so the searches lag them by at most the
+ * rebuild delay. The results cached for the previous generation are dropped along.
+ */
+@Component
+@RequiredArgsConstructor
+public class BookSearchIndex
+{
+    private static final int GRAM_SIZE = 3;
+    private static final int EXACT_ISBN_SCORE = 1000;
+    private static final int TITLE_PREFIX_SCORE = 100;
+    private static final int TITLE_SCORE = 50;
+    private static final int ISBN_SCORE = 20;
+    private static final int AUTHOR_SCORE = 10;
+    private static final Comparator<ScoredIsbn> BY_RELEVANCE = Comparator
+            .comparingInt(ScoredIsbn::score)
+            .thenComparing(ScoredIsbn::isbn,
+                           Comparator.reverseOrder());
+    
+    private final Logger log = LoggerFactory.getLogger(BookSearchIndex.class);
+    
+    private final BookReadRepository bookReadRepository;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, BookDocument> documents = new HashMap<>();
+    private Map<BookField, Map<String, Set<String>>> postings = new EnumMap<>(BookField.class);
+    // Bumped by every change, so the results cached for an older generation are never served
+    private final AtomicLong generation = new AtomicLong();
+    // Last version of the books changed while the index is being rebuilt, null for a deleted one.
+    // Not null during a rebuild
+    private Map<String, BookSummaryDto> changedDuringBuild;
+    private volatile boolean ready;
+    
+    private static Set<String> trigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+            grams.add(text.substring(i,
+                                     i + GRAM_SIZE));
+        }
+        return grams;
+    }
+    
+    public boolean isReady() {
+        return this.ready;
+    }
+    
+    public long generation() {
+        return this.generation.get();
+    }
+    
+    /**
+     * Builds a new index while the current one keeps answering, then swaps them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        Map<String, BookDocument> newDocuments = new HashMap<>();
+        Map<BookField, Map<String, Set<String>>> newPostings = new EnumMap<>(BookField.class);
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            this.changedDuringBuild = new HashMap<>();
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+        
+        this.bookReadRepository.streamAllSummaries(book -> add(newDocuments,
+                                                               newPostings,
+                                                               new BookDocument(book)));
+        
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            // The books changed while streaming are replaced by their last version, a deleted book
+            // leaving nothing
+            this.changedDuringBuild.forEach((isbn, book) -> {
+                remove(newDocuments,
+                       newPostings,
+                       isbn);
+                if (book != null) {
+                    add(newDocuments,
+                        newPostings,
+                        new BookDocument(book));
+                }
+            });
+            this.changedDuringBuild = null;
+            this.documents = newDocuments;
+            this.postings = newPostings;
+            this.generation.incrementAndGet();
+            this.ready = true;
+            this.log.info("Search index built with {} books.",
+                          newDocuments.size());
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+    }
+    
+    /**
+     * Follows the books changed by the other instances since the last rebuild.
+     */
+    @Scheduled(initialDelayString = "${book.search.rebuild-delay-ms:300000}",
+               fixedDelayString = "${book.search.rebuild-delay-ms:300000}")
+    public void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            this.log.warn("Failed to rebuild the search index, the current one is kept.",
+                          e);
+        }
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            if (this.changedDuringBuild != null) {
+                this.changedDuringBuild.put(event.isbn(),
+                                            event.current());
+            }
+            remove(this.documents,
+                   this.postings,
+                   event.isbn());
+            if (event.current() != null) {
+                add(this.documents,
+                    this.postings,
+                    new BookDocument(event.current()));
+            }
+            this.generation.incrementAndGet();
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+    }
+    
+    /**
+     * Finds the books whose ISBN, title or author contains the corresponding non-blank field of
+     * the filter, ignoring the case and the accents. An exact ISBN ranks first, then a title
+     * starting with the term, a title containing it, an ISBN containing it and an author
+     * containing it. The scores of the matching fields are added up.
+     *
+     * @return the ISBNs of the best matches, at most the limit, and the number of matches.
+     */
+    public BookSearchResult search(
+            BookDto filter,
+            int limit
+    ) {
+        String isbnTerm = TextNormalizer.normalize(filter.getIsbn());
+        String titleTerm = TextNormalizer.normalize(filter.getTitle());
+        String authorTerm = TextNormalizer.normalize(filter.getAuthor());
+        
+        this.lock
+                .readLock()
+                .lock();
+        try {
+            Set<String> candidates = new HashSet<>();
+            candidates.addAll(candidates(BookField.ISBN,
+                                         isbnTerm));
+            candidates.addAll(candidates(BookField.TITLE,
+                                         titleTerm));
+            candidates.addAll(candidates(BookField.AUTHOR,
+                                         authorTerm));
+            
+            // Min-heap of the best matches: the root is the first one to give up its place
+            PriorityQueue<ScoredIsbn> best = new PriorityQueue<>(limit + 1,
+                                                                 BY_RELEVANCE);
+            int totalHits = 0;
+            for (String isbn : candidates) {
+                int score = this.documents
+                        .get(isbn)
+                        .score(isbnTerm,
+                               titleTerm,
+                               authorTerm);
+                if (score > 0) {
+                    totalHits++;
+                    best.add(new ScoredIsbn(isbn,
+                                            score));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+            
+            List<String> isbns = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                isbns.add(best
+                                  .poll()
+                                  .isbn());
+            }
+            return new BookSearchResult(isbns.reversed(),
+                                        totalHits);
+        } finally {
+            this.lock
+                    .readLock()
+                    .unlock();
+        }
+    }
+    
+    /**
+     * @return a superset of the books whose field contains the term.
+     */
+    private Collection<String> candidates(
+            BookField field,
+            String term
+    ) {
+        if (term.isEmpty()) {
+            return Set.of();
+        } else if (term.length() < GRAM_SIZE) {
+            // Too short to have a trigram, all the documents are candidates
+            return this.documents.keySet();
+        }
+        
+        Map<String, Set<String>> fieldPostings = this.postings.getOrDefault(field,
+                                                                            Map.of());
+        Set<String> smallest = null;
+        for (String gram : trigrams(term)) {
+            Set<String> list = fieldPostings.get(gram);
+            if (list == null) {
+                return Set.of();
+            } else if (smallest == null || list.size() < smallest.size()) {
+                smallest = list;
+            }
+        }
+        return smallest;
+    }
+    
+    private static void add(
+            Map<String, BookDocument> documents,
+            Map<BookField, Map<String, Set<String>>> postings,
+            BookDocument document
+    ) {
+        documents.put(document.isbn(),
+                      document);
+        for (BookField field : BookField.values()) {
+            Map<String, Set<String>> fieldPostings = postings.computeIfAbsent(field,
+                                                                              f -> new HashMap<>());
+            for (String gram : trigrams(document.get(field))) {
+                fieldPostings
+                        .computeIfAbsent(gram,
+                                         g -> new HashSet<>())
+                        .add(document.isbn());
+            }
+        }
+    }
+    
+    private static void remove(
+            Map<String, BookDocument> documents,
+            Map<BookField, Map<String, Set<String>>> postings,
+            String isbn
+    ) {
+        BookDocument document = documents.remove(isbn);
+        if (document == null) {
+            return;
+        }
+        for (BookField field : BookField.values()) {
+            Map<String, Set<String>> fieldPostings = postings.get(field);
+            for (String gram : trigrams(document.get(field))) {
+                Set<String> list = fieldPostings.get(gram);
+                list.remove(isbn);
+                if (list.isEmpty()) {
+                    fieldPostings.remove(gram);
+                }
+            }
+        }
+    }
+    
+    private record ScoredIsbn(String isbn, int score)
+    {
+    }
+    
+    private enum BookField
+    {
+        ISBN, TITLE, AUTHOR
+    }
+    
+    private record BookDocument(String isbn, String normalizedIsbn, String title, String author)
+    {
+        BookDocument(BookSummaryDto book) {
+            this(book.getIsbn(),
+                 TextNormalizer.normalize(book.getIsbn()),
+                 TextNormalizer.normalize(book.getTitle()),
+                 TextNormalizer.normalize(book.getAuthor()));
+        }
+        
+        int score(
+                String isbnTerm,
+                String titleTerm,
+                String authorTerm
+        ) {
+            int score = 0;
+            if (!isbnTerm.isEmpty()) {
+                if (this.normalizedIsbn.equals(isbnTerm)) {
+                    score += EXACT_ISBN_SCORE;
+                } else if (this.normalizedIsbn.contains(isbnTerm)) {
+                    score += ISBN_SCORE;
+                }
+            }
+            if (!titleTerm.isEmpty()) {
+                if (this.title.startsWith(titleTerm)) {
+                    score += TITLE_PREFIX_SCORE;
+                } else if (this.title.contains(titleTerm)) {
+                    score += TITLE_SCORE;
+                }
+            }
+            if (!authorTerm.isEmpty() && this.author.contains(authorTerm)) {
+                score += AUTHOR_SCORE;
+            }
+            return score;
+        }
+        
+        String get(BookField field) {
+            return switch (field) {
+                case ISBN -> this.normalizedIsbn;
+                case TITLE -> this.title;
+                case AUTHOR -> this.author;
+            };
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.eugene.book_service.search;
+
+import com.eugene.book_service.dto.BookDto;
+
+/**
+ * Key of the cached search results: the normalized fields of the filter, so the searches differing
+ * only by case or accents share their results, and the generation of the index they were computed on.
+ */
+public record BookSearchKey(String isbn, String title, String author, int limit, long generation)
+{
+    public static BookSearchKey of(
+            BookDto filter,
+            int limit,
+            long generation
+    ) {
+        return new BookSearchKey(TextNormalizer.normalize(filter.getIsbn()),
+                                 TextNormalizer.normalize(filter.getTitle()),
+                                 TextNormalizer.normalize(filter.getAuthor()),
+                                 limit,
+                                 generation);
+    }
+}
@@ -0,0 +1,11 @@
+package com.eugene.book_service.search;
+
+import java.util.List;
+
+/**
+ * The ISBNs of the best matches of a search, the most relevant first, and the number of books
+ * matching the search.
+ */
+public record BookSearchResult(List<String> isbns, int totalHits)
+{
+}
@@ -0,0 +1,504 @@
+package com.eugene.book_service.search;
+
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.service.BookChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Radix tree of the normalized titles and authors of the books, used for the type-ahead.
+ * The edges are labelled with char arrays and the children are kept in sorted arrays, so a node
+ * costs a few dozen bytes. Each entry is weighted by the number of books it belongs to, and every
+ * node keeps the best weight of its subtree: the top-K completions of a prefix are found with a
+ * best-first walk that only visits the branches able to beat the current results.
+ * The trie follows the committed changes of the BookService. The other instances publish no event
+ * here: the trie is rebuilt periodically, so the suggestions lag their changes by at most the
+ * rebuild delay.
+ */
+@Component
+@RequiredArgsConstructor
+public class BookSuggestionTrie
+{
+    private final Logger log = LoggerFactory.getLogger(BookSuggestionTrie.class);
+    
+    private final BookReadRepository bookReadRepository;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node(new char[0]);
+    private int size;
+    // Not null while the trie is being rebuilt
+    private Map<String, BuildChange> changedDuringBuild;
+    
+    private static int commonPrefixLength(
+            char[] label,
+            String key,
+            int offset
+    ) {
+        int length = 0;
+        while (length < label.length && offset + length < key.length() && label[length] == key.charAt(offset + length)) {
+            length++;
+        }
+        return length;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        Node newRoot = new Node(new char[0]);
+        int[] entries = {0};
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            this.changedDuringBuild = new HashMap<>();
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+        
+        this.bookReadRepository.streamAllSummaries(book -> {
+            this.lock
+                    .readLock()
+                    .lock();
+            try {
+                BuildChange change = this.changedDuringBuild.get(book.getIsbn());
+                if (change == null) {
+                    entries[0] += insert(newRoot,
+                                         book);
+                } else {
+                    change.skippedByStream = true;
+                }
+            } finally {
+                this.lock
+                        .readLock()
+                        .unlock();
+            }
+        });
+        
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            // The changes are replayed: the version streamed before the first change is replaced by
+            // the last one, a deleted book leaving nothing
+            for (BuildChange change : this.changedDuringBuild.values()) {
+                if (!change.skippedByStream && change.previous != null) {
+                    entries[0] -= remove(newRoot,
+                                         change.previous);
+                }
+                if (change.current != null) {
+                    entries[0] += insert(newRoot,
+                                         change.current);
+                }
+            }
+            this.changedDuringBuild = null;
+            this.root = newRoot;
+            this.size = entries[0];
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+        this.log.info("Suggestion trie built with {} entries.",
+                      entries[0]);
+    }
+    
+    /**
+     * Follows the books changed by the other instances since the last rebuild.
+     */
+    @Scheduled(initialDelayString = "${book.search.rebuild-delay-ms:300000}",
+               fixedDelayString = "${book.search.rebuild-delay-ms:300000}")
+    public void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            this.log.warn("Failed to rebuild the suggestion trie, the current one is kept.",
+                          e);
+        }
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            if (event.previous() != null) {
+                this.size -= remove(this.root,
+                                    event.previous());
+            }
+            if (event.current() != null) {
+                this.size += insert(this.root,
+                                    event.current());
+            }
+            if (this.changedDuringBuild != null) {
+                this.changedDuringBuild.computeIfAbsent(event.isbn(),
+                                                        isbn -> new BuildChange(event.previous())).current = event.current();
+            }
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+    }
+    
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * @return the titles and authors starting with the prefix, the ones shared by the most books
+     * first.
+     */
+    public List<String> complete(
+            String prefix,
+            int limit
+    ) {
+        String key = TextNormalizer.normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        
+        this.lock
+                .readLock()
+                .lock();
+        try {
+            Node node = find(key);
+            if (node == null) {
+                return List.of();
+            }
+            
+            List<String> completions = new ArrayList<>(limit);
+            PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+            candidates.add(new Candidate(node,
+                                         false,
+                                         node.maxWeight));
+            while (!candidates.isEmpty() && completions.size() < limit) {
+                Candidate candidate = candidates.poll();
+                if (candidate.terminal()) {
+                    completions.add(candidate
+                                            .node()
+                                            .text);
+                } else {
+                    if (candidate.node().weight > 0) {
+                        candidates.add(new Candidate(candidate.node(),
+                                                     true,
+                                                     candidate.node().weight));
+                    }
+                    for (Node child : candidate.node().children) {
+                        candidates.add(new Candidate(child,
+                                                     false,
+                                                     child.maxWeight));
+                    }
+                }
+            }
+            return completions;
+        } finally {
+            this.lock
+                    .readLock()
+                    .unlock();
+        }
+    }
+    
+    /**
+     * @return the node of the subtree holding all the keys starting with the prefix.
+     */
+    private Node find(String prefix) {
+        Node node = this.root;
+        int offset = 0;
+        while (offset < prefix.length()) {
+            Node child = node.child(prefix.charAt(offset));
+            if (child == null) {
+                return null;
+            }
+            int common = commonPrefixLength(child.label,
+                                            prefix,
+                                            offset);
+            if (offset + common == prefix.length()) {
+                return child;
+            } else if (common < child.label.length) {
+                return null;
+            }
+            node = child;
+            offset += common;
+        }
+        return node;
+    }
+    
+    private int insert(
+            Node root,
+            BookSummaryDto book
+    ) {
+        return insert(root,
+                      book.getTitle()) + insert(root,
+                                                book.getAuthor());
+    }
+    
+    private int remove(
+            Node root,
+            BookSummaryDto book
+    ) {
+        return remove(root,
+                      book.getTitle()) + remove(root,
+                                                book.getAuthor());
+    }
+    
+    /**
+     * @return 1 if a new entry has been added, 0 otherwise.
+     */
+    private int insert(
+            Node root,
+            String text
+    ) {
+        String key = TextNormalizer.normalize(text);
+        if (key.isEmpty()) {
+            return 0;
+        }
+        
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        int offset = 0;
+        while (offset < key.length()) {
+            path.push(node);
+            Node child = node.child(key.charAt(offset));
+            if (child == null) {
+                child = new Node(key
+                                         .substring(offset)
+                                         .toCharArray());
+                node.addChild(child);
+                node = child;
+                break;
+            }
+            
+            int common = commonPrefixLength(child.label,
+                                            key,
+                                            offset);
+            if (common < child.label.length) {
+                // The edge is split at the end of the common part
+                Node middle = new Node(Arrays.copyOf(child.label,
+                                                     common));
+                node.replaceChild(middle);
+                child.label = Arrays.copyOfRange(child.label,
+                                                 common,
+                                                 child.label.length);
+                middle.addChild(child);
+                middle.maxWeight = child.maxWeight;
+                child = middle;
+            }
+            node = child;
+            offset += common;
+        }
+        
+        int added = (node.weight == 0)
+                ? 1
+                : 0;
+        if (node.text == null) {
+            node.text = text.trim();
+        }
+        node.weight++;
+        node.updateMaxWeight();
+        path.forEach(Node::updateMaxWeight);
+        return added;
+    }
+    
+    /**
+     * @return 1 if the entry doesn't belong to any book anymore, 0 otherwise.
+     */
+    private int remove(
+            Node root,
+            String text
+    ) {
+        String key = TextNormalizer.normalize(text);
+        if (key.isEmpty()) {
+            return 0;
+        }
+        
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        int offset = 0;
+        while (offset < key.length()) {
+            Node child = node.child(key.charAt(offset));
+            if (child == null || commonPrefixLength(child.label,
+                                                    key,
+                                                    offset) < child.label.length) {
+                return 0;
+            }
+            path.push(node);
+            node = child;
+            offset += child.label.length;
+        }
+        if (node.weight == 0) {
+            return 0;
+        }
+        
+        node.weight--;
+        if (node.weight > 0) {
+            node.updateMaxWeight();
+            path.forEach(Node::updateMaxWeight);
+            return 0;
+        }
+        
+        node.text = null;
+        Node parent = path.peek();
+        if (node.children.length == 0) {
+            parent.removeChild(node);
+        } else if (node.children.length == 1) {
+            node.mergeWithChild();
+        }
+        // The parent may now be a useless single child node
+        if (parent != root && parent.weight == 0 && parent.children.length == 1) {
+            parent.mergeWithChild();
+        }
+        node.updateMaxWeight();
+        path.forEach(Node::updateMaxWeight);
+        return 1;
+    }
+    
+    /**
+     * The first previous and the last current version of a book changed during a rebuild. The
+     * streamed version of the book is skipped when read after the change, otherwise it is the
+     * previous one and is removed when the change is replayed.
+     */
+    private static final class BuildChange
+    {
+        private final BookSummaryDto previous;
+        private BookSummaryDto current;
+        private boolean skippedByStream;
+        
+        private BuildChange(BookSummaryDto previous) {
+            this.previous = previous;
+        }
+    }
+    
+    private record Candidate(Node node, boolean terminal, int weight)
+            implements Comparable<Candidate>
+    {
+        @Override
+        public int compareTo(Candidate other) {
+            if (this.weight != other.weight) {
+                return Integer.compare(other.weight,
+                                       this.weight);
+            }
+            // On equal weights, an entry is emitted before exploring further
+            return Boolean.compare(other.terminal,
+                                   this.terminal);
+        }
+    }
+    
+    private static final class Node
+    {
+        private static final Node[] NO_CHILDREN = new Node[0];
+        
+        private char[] label;
+        private Node[] children = NO_CHILDREN;
+        private String text;
+        private int weight;
+        private int maxWeight;
+        
+        private Node(char[] label) {
+            this.label = label;
+        }
+        
+        private int indexOf(char first) {
+            int low = 0;
+            int high = this.children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char c = this.children[middle].label[0];
+                if (c < first) {
+                    low = middle + 1;
+                } else if (c > first) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+        
+        private Node child(char first) {
+            int index = indexOf(first);
+            return (index >= 0)
+                    ? this.children[index]
+                    : null;
+        }
+        
+        private void addChild(Node child) {
+            int insertionPoint = -(indexOf(child.label[0]) + 1);
+            Node[] newChildren = new Node[this.children.length + 1];
+            System.arraycopy(this.children,
+                             0,
+                             newChildren,
+                             0,
+                             insertionPoint);
+            newChildren[insertionPoint] = child;
+            System.arraycopy(this.children,
+                             insertionPoint,
+                             newChildren,
+                             insertionPoint + 1,
+                             this.children.length - insertionPoint);
+            this.children = newChildren;
+        }
+        
+        private void replaceChild(Node child) {
+            this.children[indexOf(child.label[0])] = child;
+        }
+        
+        private void removeChild(Node child) {
+            int index = indexOf(child.label[0]);
+            Node[] newChildren = new Node[this.children.length - 1];
+            System.arraycopy(this.children,
+                             0,
+                             newChildren,
+                             0,
+                             index);
+            System.arraycopy(this.children,
+                             index + 1,
+                             newChildren,
+                             index,
+                             newChildren.length - index);
+            this.children = (newChildren.length == 0)
+                    ? NO_CHILDREN
+                    : newChildren;
+        }
+        
+        /**
+         * Absorbs the only child of a node which is not an entry anymore.
+         */
+        private void mergeWithChild() {
+            Node child = this.children[0];
+            char[] merged = Arrays.copyOf(this.label,
+                                          this.label.length + child.label.length);
+            System.arraycopy(child.label,
+                             0,
+                             merged,
+                             this.label.length,
+                             child.label.length);
+            this.label = merged;
+            this.children = child.children;
+            this.text = child.text;
+            this.weight = child.weight;
+            this.maxWeight = child.maxWeight;
+        }
+        
+        private void updateMaxWeight() {
+            int max = this.weight;
+            for (Node child : this.children) {
+                max = Math.max(max,
+                               child.maxWeight);
+            }
+            this.maxWeight = max;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.eugene.book_service.search;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes the texts before they are indexed or searched: lower case, without accents,
+ * with single spaces. The same normalization must be applied to both sides.
+ */
+public class TextNormalizer
+{
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    
+    private TextNormalizer() {
+        throw new IllegalStateException("Utility class");
+    }
+    
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String withoutAccents = DIACRITICS
+                .matcher(Normalizer.normalize(text,
+                                              Normalizer.Form.NFD))
+                .replaceAll("");
+        return SPACES
+                .matcher(withoutAccents.toLowerCase(Locale.ROOT))
+                .replaceAll(" ")
+                .trim();
+    }
+}
@@ -0,0 +1,35 @@
+package com.eugene.book_service.service;
+
+import com.eugene.book_service.dto.BookSummaryDto;
+
+/**
+ * Published by the BookService when a book is created, updated or deleted, so the in-memory
+ * structures built from the catalog can follow the changes.
+ * The previous state is null for a creation and the current state is null for a deletion.
+ */
+public record BookChangedEvent(BookSummaryDto previous, BookSummaryDto current)
+{
+    public static BookChangedEvent created(BookSummaryDto book) {
+        return new BookChangedEvent(null,
+                                    book);
+    }
+    
+    public static BookChangedEvent updated(
+            BookSummaryDto previous,
+            BookSummaryDto current
+    ) {
+        return new BookChangedEvent(previous,
+                                    current);
+    }
+    
+    public static BookChangedEvent deleted(BookSummaryDto book) {
+        return new BookChangedEvent(book,
+                                    null);
+    }
+    
+    public String isbn() {
+        return (this.current != null)
+                ? this.current.getIsbn()
+                : this.previous.getIsbn();
+    }
+}
@@ -0,0 +1,191 @@
+package com.eugene.book_service.service;
+
+import com.eugene.book_service.dto.BookDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads the rows of a book import one at a time, so the document is never held in memory.
+ * In NDJSON each line is a book as sent to the create endpoint. In CSV the first line names the
+ * columns among isbn, title, description, author, url and categoriesIds, the category IDs of a row
+ * being separated by semicolons. The CSV fields may be quoted, a quote being escaped by doubling it.
+ * The blank lines are skipped.
+ */
+public class BookImportReader
+{
+    private static final String CATEGORY_SEPARATOR = ";";
+    
+    private final BufferedReader reader;
+    private final Format format;
+    private final ObjectMapper objectMapper;
+    private long line;
+    // Index of each CSV column by lower case name, read from the header
+    private Map<String, Integer> columns;
+    
+    public BookImportReader(
+            Reader reader,
+            Format format,
+            ObjectMapper objectMapper
+    ) {
+        this.reader = new BufferedReader(reader);
+        this.format = format;
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * @return the fields of a CSV line, or null when a quoted field isn't closed.
+     */
+    private static List<String> splitCsv(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add((field.isEmpty() && !wasQuoted)
+                                   ? null
+                                   : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add((field.isEmpty() && !wasQuoted)
+                           ? null
+                           : field.toString());
+        return fields;
+    }
+    
+    /**
+     * @return the next row, or null at the end of the document.
+     */
+    public Row next() throws IOException {
+        String text;
+        do {
+            text = this.reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            this.line++;
+        } while (text.isBlank());
+        
+        if (this.format == Format.NDJSON) {
+            return readJson(text);
+        }
+        if (this.columns == null) {
+            readHeader(text);
+            return next();
+        }
+        return readCsv(text);
+    }
+    
+    private Row readJson(String text) {
+        try {
+            return new Row(this.line,
+                           this.objectMapper.readValue(text,
+                                                       BookDto.class),
+                           null);
+        } catch (JsonProcessingException e) {
+            return new Row(this.line,
+                           null,
+                           "Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+    
+    private void readHeader(String text) {
+        List<String> names = Objects.requireNonNullElse(splitCsv(text),
+                                                        List.of());
+        this.columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i) != null) {
+                this.columns.put(names
+                                         .get(i)
+                                         .trim()
+                                         .toLowerCase(Locale.ROOT),
+                                 i);
+            }
+        }
+    }
+    
+    private Row readCsv(String text) {
+        List<String> fields = splitCsv(text);
+        if (fields == null) {
+            return new Row(this.line,
+                           null,
+                           "Malformed CSV: a quoted field isn't closed.");
+        }
+        
+        Set<Long> categoriesIds = new HashSet<>();
+        String categories = field(fields,
+                                  "categoriesids");
+        if (categories != null && !categories.isBlank()) {
+            for (String categoryId : categories.split(CATEGORY_SEPARATOR)) {
+                try {
+                    categoriesIds.add(Long.parseLong(categoryId.trim()));
+                } catch (NumberFormatException e) {
+                    return new Row(this.line,
+                                   null,
+                                   "Malformed CSV: '" + categoryId.trim() + "' is not a category ID.");
+                }
+            }
+        }
+        return new Row(this.line,
+                       new BookDto(field(fields,
+                                         "isbn"),
+                                   field(fields,
+                                         "title"),
+                                   field(fields,
+                                         "description"),
+                                   field(fields,
+                                         "author"),
+                                   field(fields,
+                                         "url"),
+                                   categoriesIds),
+                       null);
+    }
+    
+    private String field(
+            List<String> fields,
+            String column
+    ) {
+        Integer index = this.columns.get(column);
+        return (index == null || index >= fields.size())
+                ? null
+                : fields.get(index);
+    }
+    
+    public enum Format
+    {
+        NDJSON,
+        CSV
+    }
+    
+    /**
+     * A row of the document: the book read, or the error which prevented reading it.
+     */
+    public record Row(long line, BookDto book, String error)
+    {
+    }
+}
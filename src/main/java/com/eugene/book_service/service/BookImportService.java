@@ -0,0 +1,240 @@
+package com.eugene.book_service.service;
+
+import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookImportResultDto;
+import com.eugene.book_service.dto.BookImportResultDto.Status;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.repository.BookWriteRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk import of books, read from a stream and written chunk by chunk.
+ * Each chunk costs a query for its existing ISBNs, one for its existing URLs, one for its
+ * categories, and its inserts in JDBC batches, in its own transaction. A row repeating the ISBN or
+ * the URL of a book, existing or earlier in the document, is reported as duplicated. The outcome of
+ * each row is reported once its chunk is committed, so neither the document nor the report is held
+ * in memory. A chunk which fails is rolled back as a whole, the chunks committed before it stay.
+ */
+@Service
+@RequiredArgsConstructor
+public class BookImportService
+{
+    private final Logger log = LoggerFactory.getLogger(BookImportService.class);
+    
+    private final BookReadRepository bookReadRepository;
+    private final BookWriteRepository bookWriteRepository;
+    private final CategoryRepository categoryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    
+    @Value("${book.import.chunk-size:500}")
+    private int chunkSize;
+    
+    private static BookImportResultDto result(
+            BookImportReader.Row row,
+            Status status,
+            String message
+    ) {
+        String isbn = (row.book() == null)
+                ? null
+                : row
+                .book()
+                .getIsbn();
+        return new BookImportResultDto(row.line(),
+                                       isbn,
+                                       status,
+                                       message);
+    }
+    
+    public void importBooks(
+            Reader reader,
+            BookImportReader.Format format,
+            Consumer<BookImportResultDto> consumer
+    ) throws IOException {
+        BookImportReader rows = new BookImportReader(reader,
+                                                     format,
+                                                     this.objectMapper);
+        List<BookImportReader.Row> chunk = new ArrayList<>(this.chunkSize);
+        Map<Status, Integer> counts = new EnumMap<>(Status.class);
+        Consumer<BookImportResultDto> countingConsumer = result -> {
+            counts.merge(result.getStatus(),
+                         1,
+                         Integer::sum);
+            consumer.accept(result);
+        };
+        for (BookImportReader.Row row = rows.next(); row != null; row = rows.next()) {
+            chunk.add(row);
+            if (chunk.size() == this.chunkSize) {
+                importChunk(chunk).forEach(countingConsumer);
+                chunk.clear();
+            }
+        }
+        importChunk(chunk).forEach(countingConsumer);
+        this.log.info("Books imported: {}",
+                      counts);
+    }
+    
+    private List<BookImportResultDto> importChunk(List<BookImportReader.Row> chunk) {
+        if (chunk.isEmpty()) {
+            return List.of();
+        }
+        BookImportResultDto[] results = new BookImportResultDto[chunk.size()];
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> writeChunk(chunk,
+                                                                               results));
+        } catch (RuntimeException e) {
+            long firstLine = chunk
+                    .getFirst()
+                    .line();
+            long lastLine = chunk
+                    .getLast()
+                    .line();
+            String message = "Rolled back with the rows " + firstLine + " to " + lastLine + ": " + NestedExceptionUtils
+                    .getMostSpecificCause(e)
+                    .getMessage();
+            this.log.warn("Book import chunk failed. {}",
+                          message);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null || results[i].getStatus() == Status.CREATED) {
+                    results[i] = result(chunk.get(i),
+                                        Status.FAILED,
+                                        message);
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Fills the outcome of each row of the chunk, and inserts its new books.
+     */
+    private void writeChunk(
+            List<BookImportReader.Row> chunk,
+            BookImportResultDto[] results
+    ) {
+        Set<String> isbns = new HashSet<>();
+        Set<String> urls = new HashSet<>();
+        Set<Long> categoriesIds = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            BookImportReader.Row row = chunk.get(i);
+            String error = (row.error() != null)
+                    ? row.error()
+                    : validate(row.book());
+            if (error != null) {
+                results[i] = result(row,
+                                    Status.INVALID,
+                                    error);
+            } else {
+                isbns.add(row
+                                  .book()
+                                  .getIsbn());
+                urls.add(row
+                                 .book()
+                                 .getUrl());
+                categoriesIds.addAll(row
+                                             .book()
+                                             .getCategoriesIds());
+            }
+        }
+        
+        Set<String> existingIsbns = isbns.isEmpty()
+                ? Set.of()
+                : this.bookReadRepository.findExistingIsbns(isbns);
+        Set<String> existingUrls = urls.isEmpty()
+                ? Set.of()
+                : this.bookReadRepository.findExistingUrls(urls);
+        Map<Long, Category> categories = categoriesIds.isEmpty()
+                ? Map.of()
+                : this.categoryRepository
+                .findAllById(categoriesIds)
+                .stream()
+                .collect(Collectors.toMap(Category::getId,
+                                          Function.identity()));
+        
+        List<Book> books = new ArrayList<>();
+        Set<String> importedIsbns = new HashSet<>();
+        Set<String> importedUrls = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            BookImportReader.Row row = chunk.get(i);
+            BookDto bookDto = row.book();
+            if (existingIsbns.contains(bookDto.getIsbn()) || importedIsbns.contains(bookDto.getIsbn())) {
+                results[i] = result(row,
+                                    Status.DUPLICATED,
+                                    "Book with ISBN '" + bookDto.getIsbn() + "' already exists.");
+            } else if (existingUrls.contains(bookDto.getUrl()) || importedUrls.contains(bookDto.getUrl())) {
+                results[i] = result(row,
+                                    Status.DUPLICATED,
+                                    "Book with URL '" + bookDto.getUrl() + "' already exists.");
+            } else if (!categories
+                    .keySet()
+                    .containsAll(bookDto.getCategoriesIds())) {
+                results[i] = result(row,
+                                    Status.INVALID,
+                                    "At least one category doesn't exist");
+            } else {
+                importedIsbns.add(bookDto.getIsbn());
+                importedUrls.add(bookDto.getUrl());
+                Book book = bookDto.toBook();
+                bookDto
+                        .getCategoriesIds()
+                        .forEach(categoryId -> book
+                                .getCategories()
+                                .add(categories.get(categoryId)));
+                books.add(book);
+                results[i] = result(row,
+                                    Status.CREATED,
+                                    null);
+            }
+        }
+        
+        this.bookWriteRepository.insertAll(books);
+        books.forEach(book -> this.eventPublisher.publishEvent(BookChangedEvent.created(book.toBookSummaryDto())));
+    }
+    
+    /**
+     * @return the messages of the constraints the book breaks, or null when it is valid.
+     */
+    private String validate(BookDto bookDto) {
+        if (bookDto.getCategoriesIds() == null) {
+            bookDto.setCategoriesIds(new HashSet<>());
+        } else if (bookDto
+                .getCategoriesIds()
+                .contains(null)) {
+            return "At least one category doesn't exist";
+        }
+        Set<ConstraintViolation<BookDto>> violations = this.validator.validate(bookDto);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations
+                .stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,10 @@
+package com.eugene.book_service.service;
+
+import java.util.Set;
+
+/**
+ * Published when the reviews of some books are added or removed, the books themselves being unchanged.
+ */
+public record BookReviewsChangedEvent(Set<String> isbns)
+{
+}
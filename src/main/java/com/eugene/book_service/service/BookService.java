@@ -1,101 +1,451 @@
 package com.eugene.book_service.service;
 
+import com.eugene.book_service.cache.BookExistenceFilter;
+import com.eugene.book_service.cache.CategoryNameCache;
+import com.eugene.book_service.config.CacheConfig;
 import com.eugene.book_service.dto.BookDetailsDto;
 import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookPageDto;
+import com.eugene.book_service.dto.BookPatchDto;
+import com.eugene.book_service.dto.BookSearchResultDto;
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.exception.ConflictException;
 import com.eugene.book_service.exception.DuplicatedException;
 import com.eugene.book_service.exception.NotFoundException;
+import com.eugene.book_service.exception.PreconditionFailedException;
 import com.eugene.book_service.kafka.BookEventProducer;
 import com.eugene.book_service.model.Book;
 import com.eugene.book_service.model.Category;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.repository.BookCategoriesRepository;
+import com.eugene.book_service.repository.BookReadRepository;
 import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.BookWriteRepository;
 import com.eugene.book_service.repository.CategoryRepository;
 import com.eugene.book_service.repository.specification.BookSpecification;
+import com.eugene.book_service.search.BookSearchIndex;
+import com.eugene.book_service.search.BookSearchKey;
+import com.eugene.book_service.search.BookSearchResult;
+import com.eugene.book_service.search.BookSuggestionTrie;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 public class BookService
 {
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+    // H2 reports a missing parent row with its own SQL state
+    private static final String H2_FOREIGN_KEY_VIOLATION = "23506";
+    
     private final BookEventProducer bookEventProducer;
     private final BookRepository bookRepository;
+    private final BookWriteRepository bookWriteRepository;
+    private final BookCategoriesRepository bookCategoriesRepository;
+    private final BookReadRepository bookReadRepository;
     private final CategoryRepository categoryRepository;
+    private final BookSearchIndex bookSearchIndex;
+    private final BookSuggestionTrie bookSuggestionTrie;
+    private final BookExistenceFilter bookExistenceFilter;
+    private final CategoryNameCache categoryNameCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CacheManager cacheManager;
+    
+    @Value("${book.page.default-size:20}")
+    private int defaultPageSize;
+    
+    @Value("${book.page.max-size:100}")
+    private int maxPageSize;
+    
+    @Value("${book.search.default-size:20}")
+    private int defaultSearchSize;
+    
+    @Value("${book.search.max-size:100}")
+    private int maxSearchSize;
+    
+    @Value("${book.suggest.max-size:20}")
+    private int maxSuggestions;
+    
+    @Value("${book.batch.max-size:100}")
+    private int maxBatchSize;
+    
+    @Value("${book.delete.max-size:1000}")
+    private int maxDeleteSize;
+    
+    @Value("${book.delete.event-max-reviews:4000}")
+    private int maxEventReviews;
     
     private static String getBookNotFoundMessage(String isbn) {
         return "Book with ISBN '" + isbn + "' not found.";
     }
     
+    private static String getBookModifiedMessage(String isbn) {
+        return "Book with ISBN '" + isbn + "' was modified in the meantime.";
+    }
+    
+    /**
+     * The cursor is opaque for the clients, it only wraps the last ISBN of the previous page.
+     */
+    private static String encodeCursor(String isbn) {
+        return Base64
+                .getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(isbn.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64
+                                      .getUrlDecoder()
+                                      .decode(cursor),
+                              StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The cursor '" + cursor + "' is not valid.");
+        }
+    }
+    
+    /**
+     * Turns the constraint violations of a write into the errors of the API, from the SQL state
+     * of the driver.
+     */
+    private static RuntimeException toConstraintException(
+            String isbn,
+            String url,
+            DataIntegrityViolationException e
+    ) {
+        SQLException sqlException = null;
+        for (Throwable cause = e; cause != null && sqlException == null; cause = cause.getCause()) {
+            if (cause instanceof SQLException exception) {
+                sqlException = exception;
+            }
+        }
+        if (sqlException == null) {
+            return e;
+        }
+        String message = Objects
+                .requireNonNullElse(sqlException.getMessage(),
+                                    "")
+                .toLowerCase(Locale.ROOT);
+        return switch (Objects.requireNonNullElse(sqlException.getSQLState(),
+                                                  "")) {
+            case UNIQUE_VIOLATION -> {
+                if (message.contains("(url")) {
+                    yield new DuplicatedException("Book with URL '" + url + "' already exists.",
+                                                  null);
+                } else if (message.contains("(isbn")) {
+                    yield new DuplicatedException("Book with ISBN '" + isbn + "' " + "already exists.",
+                                                  null);
+                }
+                yield e;
+            }
+            case FOREIGN_KEY_VIOLATION, H2_FOREIGN_KEY_VIOLATION ->
+                    new IllegalArgumentException("At least one category doesn't exist");
+            default -> e;
+        };
+    }
+    
+    /**
+     * The expected version is compared to the one of the loaded book. A change committed since is
+     * still caught by the update itself, which is conditional on the version.
+     */
+    private static void checkVersion(
+            Book book,
+            Long expectedVersion
+    ) {
+        if (expectedVersion != null && !expectedVersion.equals(book.getVersion())) {
+            throw new PreconditionFailedException(getBookModifiedMessage(book.getIsbn()),
+                                                  null);
+        }
+    }
+    
+    /**
+     * @return the exception of a book changed concurrently: a failed precondition when the client
+     * supplied the version it expected, a conflict otherwise.
+     */
+    private static RuntimeException toModifiedException(
+            String isbn,
+            Long expectedVersion
+    ) {
+        return (expectedVersion != null)
+                ? new PreconditionFailedException(getBookModifiedMessage(isbn),
+                                                  null)
+                : new ConflictException(getBookModifiedMessage(isbn),
+                                        null);
+    }
+    
+    private void checkBatchSize(Set<String> isbns) {
+        if (isbns.size() > this.maxBatchSize) {
+            throw new IllegalArgumentException("At most " + this.maxBatchSize + " ISBNs can be requested at once.");
+        }
+    }
+    
+    /**
+     * The insert is tried directly: the categories are checked against the cache of their names and
+     * referenced without being loaded, and the duplicated ISBN or URL is reported by the unique
+     * constraints. A successful creation costs a single flush of the book and its categories.
+     */
     @Transactional
     public BookDetailsDto createBook(BookDto bookDto) {
-        Set<Category> categories = new HashSet<>(this.categoryRepository.findAllById(bookDto.getCategoriesIds()));
-        
-        if (categories.size() != bookDto
-                .getCategoriesIds()
-                .size()) {
+        Set<Long> categoriesIds = Objects.requireNonNullElse(bookDto.getCategoriesIds(),
+                                                             Set.of());
+        Map<Long, String> categoriesNames = this.categoryNameCache.findNames(categoriesIds);
+        if (categoriesNames.size() != categoriesIds.size()) {
             throw new IllegalArgumentException("At least one category doesn't exist");
-        } else if (this.bookRepository.existsById(bookDto.getIsbn())) {
-            throw new DuplicatedException(
-                    "Book with ISBN '" + bookDto.getIsbn() + "' " + "already exists.",
-                    null);
-        } else {
-            Book book = bookDto.toBook();
-            book.setCategories(categories);
-            
-            return this.bookRepository
-                    .save(book)
-                    .toBookDetailsDto();
         }
+        
+        Book book = bookDto.toBook();
+        categoriesIds.forEach(categoryId -> book
+                .getCategories()
+                .add(this.categoryRepository.getReferenceById(categoryId)));
+        try {
+            this.bookWriteRepository.insert(book);
+        } catch (DataIntegrityViolationException e) {
+            throw toConstraintException(bookDto.getIsbn(),
+                                        bookDto.getUrl(),
+                                        e);
+        }
+        
+        this.eventPublisher.publishEvent(BookChangedEvent.created(book.toBookSummaryDto()));
+        return new BookDetailsDto(book.getIsbn(),
+                                  book.getTitle(),
+                                  book.getDescription(),
+                                  book.getAuthor(),
+                                  book.getUrl(),
+                                  new HashSet<>(categoriesNames.values()),
+                                  ReviewIdSet.empty(),
+                                  book.getVersion());
     }
     
     @Transactional(readOnly = true)
-    public List<BookDetailsDto> getAllBook() {
-        return this.bookRepository
-                .findAll()
-                .stream()
-                .map(Book::toBookDetailsDto)
-                .toList();
+    public BookPageDto getBookPage(
+            String cursor,
+            Integer size
+    ) {
+        int pageSize = (size == null)
+                ? this.defaultPageSize
+                : Math.clamp(size,
+                             1,
+                             this.maxPageSize);
+        String lastIsbn = (cursor == null || cursor.isBlank())
+                ? ""
+                : decodeCursor(cursor);
+        
+        // One more book is read to know if there is a next page
+        List<BookDetailsDto> books = this.bookReadRepository.findDetailsAfter(lastIsbn,
+                                                                              pageSize + 1);
+        boolean hasNext = books.size() > pageSize;
+        List<BookDetailsDto> page = hasNext
+                ? books.subList(0,
+                                pageSize)
+                : books;
+        String nextCursor = hasNext
+                ? encodeCursor(page
+                                       .getLast()
+                                       .getIsbn())
+                : null;
+        
+        return new BookPageDto(page,
+                               nextCursor);
     }
     
     @Transactional(readOnly = true)
-    public List<BookDetailsDto> searchBooksByKey(BookDto bookDto) {
+    public void streamAllBooks(Consumer<BookDetailsDto> consumer) {
+        this.bookReadRepository.streamAllDetails(consumer);
+    }
+    
+    /**
+     * Only the best matches are read from the database, the most relevant first.
+     * The ISBNs found are cached for the generation of the index, so any change to the catalog
+     * makes the cached results unreachable. Until the search index is ready, the matches are read
+     * by ISBN from the database.
+     */
+    @Transactional(readOnly = true)
+    public BookSearchResultDto searchBooksByKey(
+            BookDto bookDto,
+            Integer size
+    ) {
+        int limit = (size == null)
+                ? this.defaultSearchSize
+                : Math.clamp(size,
+                             1,
+                             this.maxSearchSize);
+        
+        if (this.bookSearchIndex.isReady()) {
+            // The generation is read before searching, so the results are never older than their key
+            BookSearchKey key = BookSearchKey.of(bookDto,
+                                                 limit,
+                                                 this.bookSearchIndex.generation());
+            Cache searches = this.cacheManager.getCache(CacheConfig.BOOK_SEARCHES_CACHE);
+            BookSearchResult result = (searches != null)
+                    ? searches.get(key,
+                                   () -> this.bookSearchIndex.search(bookDto,
+                                                                     limit))
+                    : this.bookSearchIndex.search(bookDto,
+                                                  limit);
+            Map<String, BookDetailsDto> books = loadBooks(result.isbns());
+            List<BookDetailsDto> rankedBooks = result
+                    .isbns()
+                    .stream()
+                    .map(books::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+            return new BookSearchResultDto(rankedBooks,
+                                           result.totalHits());
+        }
+        
         Specification<Book> bookSpec = BookSpecification.filterBy(bookDto);
-        return this.bookRepository
-                .findAll(bookSpec)
-                .stream()
-                .map(Book::toBookDetailsDto)
-                .toList();
+        return new BookSearchResultDto(this.bookReadRepository.findAllDetails(bookSpec,
+                                                                              limit),
+                                       this.bookRepository.count(bookSpec));
     }
     
+    /**
+     * The suggestions are served from memory, no query is sent to the database.
+     */
+    public List<String> suggest(
+            String prefix,
+            int size
+    ) {
+        return this.bookSuggestionTrie.complete(prefix,
+                                                Math.clamp(size,
+                                                           1,
+                                                           this.maxSuggestions));
+    }
+    
+    @Cacheable(cacheNames = CacheConfig.BOOKS_CACHE, key = "#isbn")
     @Transactional(readOnly = true)
     public BookDetailsDto getBookByIsbn(String isbn) {
-        return this.bookRepository
-                .findById(isbn)
-                .map(Book::toBookDetailsDto)
+        return this.bookReadRepository
+                .findDetailsByIsbn(isbn)
                 .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(isbn),
                                                          null));
     }
     
+    /**
+     * The books are read from the cache first, the missing ones with a single query.
+     */
     @Transactional(readOnly = true)
+    public Map<String, BookDetailsDto> getBooksByIsbns(Set<String> isbns) {
+        checkBatchSize(isbns);
+        return loadBooks(isbns);
+    }
+    
+    private Map<String, BookDetailsDto> loadBooks(Collection<String> isbns) {
+        Cache books = this.cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+        Map<String, BookDetailsDto> result = new HashMap<>();
+        List<String> missingIsbns = new ArrayList<>();
+        for (String isbn : isbns) {
+            BookDetailsDto book = (books != null)
+                    ? books.get(isbn,
+                                BookDetailsDto.class)
+                    : null;
+            if (book != null) {
+                result.put(isbn,
+                           book);
+            } else if (this.bookExistenceFilter.mightContain(isbn)) {
+                missingIsbns.add(isbn);
+            }
+        }
+        
+        if (!missingIsbns.isEmpty()) {
+            for (BookDetailsDto book : this.bookReadRepository.findDetailsByIsbns(missingIsbns)) {
+                result.put(book.getIsbn(),
+                           book);
+                if (books != null) {
+                    books.put(book.getIsbn(),
+                              book);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Not transactional, like doesBookExists: the cached books and the ISBNs unknown to the existence
+     * filter are answered without a query, the others with a single one.
+     */
+    public Map<String, Boolean> doBooksExist(Set<String> isbns) {
+        checkBatchSize(isbns);
+        Cache books = this.cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+        Map<String, Boolean> result = new HashMap<>();
+        List<String> uncertainIsbns = new ArrayList<>();
+        for (String isbn : isbns) {
+            if (!this.bookExistenceFilter.mightContain(isbn)) {
+                result.put(isbn,
+                           false);
+            } else if (books != null && books.get(isbn) != null) {
+                result.put(isbn,
+                           true);
+            } else {
+                uncertainIsbns.add(isbn);
+            }
+        }
+        
+        if (!uncertainIsbns.isEmpty()) {
+            Set<String> existingIsbns = this.bookReadRepository.findExistingIsbns(uncertainIsbns);
+            uncertainIsbns.forEach(isbn -> result.put(isbn,
+                                                      existingIsbns.contains(isbn)));
+        }
+        return result;
+    }
+    
+    /**
+     * Not transactional: the ISBNs unknown to the existence filter are answered without a connection.
+     */
     public Boolean doesBookExists(String isbn) {
-        return this.bookRepository.existsById(isbn);
+        return this.bookExistenceFilter.mightContain(isbn) && this.bookRepository.existsById(isbn);
     }
     
+    /**
+     * Not transactional, like doBooksExist: the version of a cached book is answered without a
+     * query, the others by reading the version alone.
+     */
+    public Long getBookVersion(String isbn) {
+        Cache books = this.cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+        BookDetailsDto book = (books != null)
+                ? books.get(isbn,
+                            BookDetailsDto.class)
+                : null;
+        if (book != null) {
+            return book.getVersion();
+        }
+        return this.bookRepository
+                .findVersionByIsbn(isbn)
+                .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(isbn),
+                                                         null));
+    }
+    
+    /**
+     * @param expectedVersion the version the book must still have, or null to update any version.
+     */
     @Transactional
     public BookDetailsDto updateBook(
             String isbn,
-            BookDto bookDto
+            BookDto bookDto,
+            Long expectedVersion
     ) {
         
         Book book = this.bookRepository
                 .findById(isbn)
                 .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(bookDto.getIsbn()),
                                                          null));
+        checkVersion(book,
+                     expectedVersion);
         Set<Category> categories = new HashSet<>(this.categoryRepository.findAllById(bookDto.getCategoriesIds()));
         
         if (categories.size() != bookDto
@@ -103,26 +453,149 @@ public class BookService
                 .size()) {
             throw new IllegalArgumentException("At least one category doesn't exist");
         } else {
+            BookSummaryDto previous = book.toBookSummaryDto();
             book.setTitle(bookDto.getTitle());
             book.setDescription(bookDto.getDescription());
             book.setAuthor(bookDto.getAuthor());
             book.setUrl(bookDto.getUrl());
             book.setCategories(categories);
             
-            return this.bookRepository
-                    .save(book)
-                    .toBookDetailsDto();
+            try {
+                // Flushed here so the new version is returned
+                this.bookRepository.flush();
+            } catch (OptimisticLockingFailureException e) {
+                throw toModifiedException(isbn,
+                                          expectedVersion);
+            } catch (DataIntegrityViolationException e) {
+                throw toConstraintException(isbn,
+                                            book.getUrl(),
+                                            e);
+            }
+            this.eventPublisher.publishEvent(BookChangedEvent.updated(previous,
+                                                                      book.toBookSummaryDto()));
+            return book.toBookDetailsDto();
         }
     }
     
+    /**
+     * Only the supplied fields are changed: the scalar columns by the dirty checking of the book, the
+     * categories by inserting and deleting the rows which differ. The review IDs are never loaded.
+     * The version is incremented once, by the update of the book or explicitly when only the
+     * categories changed.
+     *
+     * @param expectedVersion the version the book must still have, or null to update any version.
+     */
     @Transactional
-    public void deleteBook(String isbn) {
+    public BookDetailsDto patchBook(
+            String isbn,
+            BookPatchDto bookPatchDto,
+            Long expectedVersion
+    ) {
         Book book = this.bookRepository
                 .findById(isbn)
                 .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(isbn),
                                                          null));
+        checkVersion(book,
+                     expectedVersion);
+        Set<Long> categoriesIds = bookPatchDto.getCategoriesIds();
+        if (categoriesIds != null && this.categoryNameCache
+                .findNames(categoriesIds)
+                .size() != categoriesIds.size()) {
+            throw new IllegalArgumentException("At least one category doesn't exist");
+        }
+        
+        BookSummaryDto previous = book.toBookSummaryDto();
+        if (bookPatchDto.getTitle() != null) {
+            book.setTitle(bookPatchDto.getTitle());
+        }
+        if (bookPatchDto.getDescription() != null) {
+            book.setDescription(bookPatchDto.getDescription());
+        }
+        if (bookPatchDto.getAuthor() != null) {
+            book.setAuthor(bookPatchDto.getAuthor());
+        }
+        if (bookPatchDto.getUrl() != null) {
+            book.setUrl(bookPatchDto.getUrl());
+        }
+        Long version = book.getVersion();
+        try {
+            // Flushed here so a duplicated URL is reported as such
+            this.bookRepository.flush();
+            boolean categoriesChanged = categoriesIds != null && this.bookCategoriesRepository.replaceCategories(isbn,
+                                                                                                                 categoriesIds);
+            // Unless the update of the book already incremented it
+            if (categoriesChanged && version.equals(book.getVersion()) && this.bookRepository.incrementVersion(isbn,
+                                                                                                               version) == 0) {
+                throw toModifiedException(isbn,
+                                          expectedVersion);
+            }
+        } catch (OptimisticLockingFailureException e) {
+            throw toModifiedException(isbn,
+                                      expectedVersion);
+        } catch (DataIntegrityViolationException e) {
+            throw toConstraintException(isbn,
+                                        book.getUrl(),
+                                        e);
+        }
+        
+        this.eventPublisher.publishEvent(BookChangedEvent.updated(previous,
+                                                                  book.toBookSummaryDto()));
+        return this.bookReadRepository
+                .findDetailsByIsbn(isbn)
+                .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(isbn),
+                                                         null));
+    }
+    
+    /**
+     * The DELETE carries no precondition: the book is locked, so a review appended at the same time
+     * waits for the deletion instead of failing it with a version conflict, and its ID is either in
+     * the BOOK_DELETED event or never written.
+     */
+    @Transactional
+    public void deleteBook(String isbn) {
+        Book book = this.bookRepository
+                .findForUpdateByIsbn(isbn)
+                .orElseThrow(() -> new NotFoundException(getBookNotFoundMessage(isbn),
+                                                         null));
         
+        BookSummaryDto deleted = book.toBookSummaryDto();
+        ReviewIdSet reviewsIds = ReviewIdSet.copyOf(book.getReviewsIds());
         this.bookRepository.delete(book);
-        this.bookEventProducer.sendBookDeletedEvent(book.getReviewsIds());
+        this.eventPublisher.publishEvent(BookChangedEvent.deleted(deleted));
+        this.bookEventProducer.sendBookDeletedEvent(isbn,
+                                                    reviewsIds);
+    }
+    
+    /**
+     * The books are deleted with set-based statements, without being loaded. Their review IDs are
+     * merged into as few BOOK_DELETED events as their number allows, all keyed by the first deleted
+     * ISBN so they go to the same partition.
+     *
+     * @return the ISBNs of the deleted books, the unknown ones being left out.
+     */
+    @Transactional
+    public Set<String> deleteBooks(Set<String> isbns) {
+        if (isbns.size() > this.maxDeleteSize) {
+            throw new IllegalArgumentException("At most " + this.maxDeleteSize + " books can be deleted at once.");
+        }
+        List<BookSummaryDto> books = this.bookReadRepository.findSummariesByIsbns(isbns);
+        if (books.isEmpty()) {
+            return Set.of();
+        }
+        
+        Set<String> deletedIsbns = new TreeSet<>();
+        books.forEach(book -> deletedIsbns.add(book.getIsbn()));
+        ReviewIdSet reviewsIds = this.bookReadRepository.findReviewsIdsByIsbns(deletedIsbns);
+        this.bookWriteRepository.deleteAllByIsbns(deletedIsbns);
+        
+        books.forEach(book -> this.eventPublisher.publishEvent(BookChangedEvent.deleted(book)));
+        String key = books
+                .getFirst()
+                .getIsbn();
+        reviewsIds
+                .split(this.maxEventReviews)
+                .forEach(part -> this.bookEventProducer.sendBookDeletedEvent(key,
+                                                                             part));
+        return deletedIsbns;
     }
 }
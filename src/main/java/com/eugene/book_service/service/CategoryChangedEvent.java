@@ -0,0 +1,9 @@
+package com.eugene.book_service.service;
+
+/**
+ * Published by the CategoryService when a category is renamed or deleted, which changes the details
+ * of every book in that category.
+ */
+public record CategoryChangedEvent(Long idCategory)
+{
+}
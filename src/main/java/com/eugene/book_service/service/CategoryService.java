@@ -1,12 +1,17 @@
 package com.eugene.book_service.service;
 
 import com.eugene.book_service.dto.CategoryDto;
+import com.eugene.book_service.exception.ConflictException;
 import com.eugene.book_service.exception.DuplicatedException;
 import com.eugene.book_service.exception.NotFoundException;
+import com.eugene.book_service.exception.PreconditionFailedException;
 import com.eugene.book_service.model.Category;
+import com.eugene.book_service.repository.BookRepository;
 import com.eugene.book_service.repository.CategoryRepository;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -17,11 +22,17 @@ import java.util.List;
 public class CategoryService
 {
     private final CategoryRepository categoryRepository;
+    private final BookRepository bookRepository;
+    private final ApplicationEventPublisher eventPublisher;
     
     private static String getCategoryNotFoundMessage(long idCategory) {
         return "Category '" + idCategory + "' not found.";
     }
     
+    private static String getCategoryModifiedMessage(long idCategory) {
+        return "Category '" + idCategory + "' was modified in the meantime.";
+    }
+    
     @Transactional
     public Category createCategory(@Valid CategoryDto categoryDto) {
         if (this.categoryRepository
@@ -50,15 +61,25 @@ public class CategoryService
                                                          null));
     }
     
+    /**
+     * The books of the category get a new version, as their details show its name.
+     *
+     * @param expectedVersion the version the category must still have, or null to update any version.
+     */
     @Transactional
     public Category updateCategory(
             Long idCategory,
-            @Valid CategoryDto categoryDto
+            @Valid CategoryDto categoryDto,
+            Long expectedVersion
     ) {
         Category category = this.categoryRepository
                 .findById(idCategory)
                 .orElseThrow(() -> new NotFoundException(getCategoryNotFoundMessage(idCategory),
                                                          null));
+        if (expectedVersion != null && !expectedVersion.equals(category.getVersion())) {
+            throw new PreconditionFailedException(getCategoryModifiedMessage(idCategory),
+                                                  null);
+        }
         
         this.categoryRepository
                 .findByName(categoryDto.getName())
@@ -69,7 +90,22 @@ public class CategoryService
                 });
         
         category.setName(categoryDto.getName());
-        return this.categoryRepository.save(category);
+        Category savedCategory;
+        try {
+            // Flushed here so the new version is returned
+            savedCategory = this.categoryRepository.saveAndFlush(category);
+        } catch (OptimisticLockingFailureException e) {
+            // A failed precondition only when the client supplied the version it expected
+            if (expectedVersion != null) {
+                throw new PreconditionFailedException(getCategoryModifiedMessage(idCategory),
+                                                      null);
+            }
+            throw new ConflictException(getCategoryModifiedMessage(idCategory),
+                                        null);
+        }
+        this.bookRepository.incrementVersionsByCategoryId(idCategory);
+        this.eventPublisher.publishEvent(new CategoryChangedEvent(idCategory));
+        return savedCategory;
     }
     
     @Transactional
@@ -78,6 +114,8 @@ public class CategoryService
                 .findById(idCategory)
                 .orElseThrow(() -> new NotFoundException(getCategoryNotFoundMessage(idCategory),
                                                          null));
+        this.bookRepository.incrementVersionsByCategoryId(idCategory);
         this.categoryRepository.delete(category);
+        this.eventPublisher.publishEvent(new CategoryChangedEvent(idCategory));
     }
 }
@@ -0,0 +1,206 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.cache.BookExistenceFilter;
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.dto.event.BookDtoEvent;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.model.OutboxEvent;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.eugene.book_service.repository.OutboxEventRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Deletes books in bulk with BOOK_DELETED events of four review IDs at most, so the review IDs of
+ * the deleted books are spread over several events. The existence filter isn't rebuilt on the
+ * deletions, which would be most of such a small catalog.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "book.delete.event-max-reviews=4",
+        "book.exists-filter.max-deleted-ratio=100"})
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BookBulkDeleteFunctionalTest
+{
+    private static final int BOOK_COUNT = 4;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    /**
+     * I don't want the context to load kafka for this test, so I'm mocking his initialization
+     * It will replace all the KafkaTemplate instances.
+     */
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private CategoryRepository categoryRepository;
+    
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+    
+    @Autowired
+    private EventSerde eventSerde;
+    
+    @Autowired
+    private BookExistenceFilter bookExistenceFilter;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    @BeforeEach
+    void initCatalog() {
+        Category category = this.categoryRepository.save(new Category("art"));
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            Book book = new Book("isbn" + i,
+                                 "title " + i,
+                                 "description " + i,
+                                 "author " + i,
+                                 "url" + i);
+            book
+                    .getCategories()
+                    .add(category);
+            book.setReviewsIds(Set.of(10L * i,
+                                      10L * i + 1,
+                                      10L * i + 2));
+            this.bookRepository.save(book);
+        }
+        // The books are saved without the BookService
+        this.bookExistenceFilter.rebuild();
+    }
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.categoryRepository.deleteAll();
+        this.outboxEventRepository.deleteAll();
+        Objects
+                .requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE))
+                .clear();
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void deleteBooks_withModeratorRole_shouldBeForbidden() throws Exception {
+        this.mockMvc
+                .perform(post("/api/book/delete/bulk")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("[\"isbn0\"]")
+                                 .with(csrf()))
+                .andExpect(status().isForbidden());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void deleteBooks_shouldMergeTheReviewsIntoFewEvents() throws Exception {
+        // The book is cached, then its deletion must evict it
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             "isbn0"))
+                .andExpect(status().isOk());
+        
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(post("/api/book/delete/bulk")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(List.of("isbn0",
+                                                                                       "isbn1",
+                                                                                       "isbn2",
+                                                                                       "unknown")))
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size()").value(3))
+                .andExpect(jsonPath("$[0]").value("isbn0"));
+        // The books, their review IDs, the three deletes and the inserts of the events
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(5 + 3);
+        
+        assertThat(this.bookRepository.findAll())
+                .extracting(Book::getIsbn)
+                .containsExactly("isbn3");
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             "isbn0"))
+                .andExpect(status().isNotFound());
+        
+        List<OutboxEvent> outboxEvents = this.outboxEventRepository.findAll();
+        assertThat(outboxEvents)
+                .hasSize(3)
+                .extracting(OutboxEvent::getKey)
+                .containsOnly("isbn0");
+        List<Long> reviewsIds = new ArrayList<>();
+        for (OutboxEvent outboxEvent : outboxEvents) {
+            BookDtoEvent event = this.eventSerde.decode(outboxEvent.getPayload(),
+                                                        outboxEvent.getFormat(),
+                                                        BookDtoEvent.class);
+            assertThat(event.getEventType()).isEqualTo(KafkaEventType.BOOK_DELETED);
+            assertThat(event
+                               .getReviewsIds()
+                               .size()).isLessThanOrEqualTo(4);
+            reviewsIds.addAll(event
+                                      .getReviewsIds()
+                                      .asList());
+        }
+        assertThat(new HashSet<>(reviewsIds)).containsExactlyInAnyOrder(0L,
+                                                                        1L,
+                                                                        2L,
+                                                                        10L,
+                                                                        11L,
+                                                                        12L,
+                                                                        20L,
+                                                                        21L,
+                                                                        22L);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void deleteBooks_withUnknownIsbns_shouldSendNoEvent() throws Exception {
+        this.mockMvc
+                .perform(post("/api/book/delete/bulk")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("[\"unknown\"]")
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size()").value(0));
+        
+        assertThat(this.bookRepository.count()).isEqualTo(BOOK_COUNT);
+        assertThat(this.outboxEventRepository.count()).isZero();
+    }
+}
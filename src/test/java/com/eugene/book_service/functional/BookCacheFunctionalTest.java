@@ -0,0 +1,378 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.cache.BookExistenceFilter;
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.event.ReviewDtoEvent;
+import com.eugene.book_service.kafka.BookEventConsumer;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.KafkaTopicConfig;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.eugene.book_service.search.BookSearchIndex;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that the book details are served from the cache and that every write path evicts them,
+ * that the cached search results never outlive a change, and that the existence filter answers the
+ * unknown ISBNs.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BookCacheFunctionalTest
+{
+    private static final String ISBN = "978-0441172719";
+    // The events without ID are identified by their offset, which must differ between the tests
+    private static final AtomicLong OFFSETS = new AtomicLong();
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private CategoryRepository categoryRepository;
+    
+    @Autowired
+    private BookEventConsumer bookEventConsumer;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    @Autowired
+    private BookExistenceFilter bookExistenceFilter;
+    
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+    
+    private Category category;
+    
+    @BeforeEach
+    void initCatalog() {
+        this.category = this.categoryRepository.save(new Category("science-fiction"));
+        Book book = new Book(ISBN,
+                             "Dune",
+                             "description",
+                             "Frank Herbert",
+                             "url");
+        book.setCategories(Set.of(this.category));
+        book.setReviewsIds(Set.of(1L));
+        this.bookRepository.save(book);
+        this.bookExistenceFilter.rebuild();
+        this.bookSearchIndex.rebuild();
+    }
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.categoryRepository.deleteAll();
+        // The repositories don't go through the BookService, so nothing evicts the caches
+        books().clear();
+        Objects
+                .requireNonNull(this.cacheManager.getCache(CacheConfig.BOOK_SEARCHES_CACHE))
+                .clear();
+    }
+    
+    private CaffeineCache books() {
+        return (CaffeineCache) Objects.requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE));
+    }
+    
+    private ConsumerRecord<String, byte[]> reviewsRecord(ReviewDtoEvent event) throws JsonProcessingException {
+        return new ConsumerRecord<>(KafkaTopicConfig.REVIEW_EVENTS,
+                                    0,
+                                    OFFSETS.getAndIncrement(),
+                                    event.getIsbn(),
+                                    this.objectMapper.writeValueAsBytes(event));
+    }
+    
+    private CacheStats stats() {
+        return books()
+                .getNativeCache()
+                .stats();
+    }
+    
+    @Test
+    @WithMockUser
+    void getBookByIsbn_shouldNotQueryTheDatabaseOnceCached() throws Exception {
+        CacheStats before = stats();
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(status().isOk());
+        
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.title").value("Dune"));
+        
+        assertThat(SqlStatementCounter.count()).isZero();
+        CacheStats after = stats().minus(before);
+        assertThat(after.missCount()).isEqualTo(1);
+        assertThat(after.hitCount()).isEqualTo(1);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void updateBook_shouldEvictTheCachedBook() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.title").value("Dune"));
+        
+        BookDto bookDto = new BookDto(ISBN,
+                                      "Dune Messiah",
+                                      "description",
+                                      "Frank Herbert",
+                                      "url",
+                                      Set.of(this.category.getId()));
+        this.mockMvc
+                .perform(put("/api/book/update/" + ISBN)
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(bookDto))
+                                 .with(csrf()))
+                .andExpect(status().isOk());
+        
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.title").value("Dune Messiah"));
+    }
+    
+    @Test
+    @WithMockUser
+    void reviewEvents_shouldEvictTheCachedBook() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(1));
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(reviewsRecord(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                                            "user1",
+                                                                                            ISBN,
+                                                                                            ReviewIdSet.of(2L)))));
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(2));
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(reviewsRecord(new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                                                            "user1",
+                                                                                            ISBN,
+                                                                                            ReviewIdSet.of(1L,
+                                                                                                         2L)))));
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(0));
+    }
+    
+    @Test
+    @WithMockUser
+    void reviewEvents_shouldSkipTheReplayedEventsWithoutQuery() throws Exception {
+        ReviewDtoEvent event = new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                  "user1",
+                                                  ISBN,
+                                                  ReviewIdSet.of(2L));
+        event.setEventId("review-event-1");
+        this.bookEventConsumer.handleReviewsEvents(List.of(reviewsRecord(event)));
+        
+        SqlStatementCounter.reset();
+        this.bookEventConsumer.handleReviewsEvents(List.of(reviewsRecord(event)));
+        
+        assertThat(SqlStatementCounter.count()).isZero();
+        this.mockMvc
+                .perform(get("/api/book/" + ISBN))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(2));
+    }
+    
+    @Test
+    @WithMockUser
+    void doesBookExists_shouldAnswerUnknownIsbnsWithoutQuery() throws Exception {
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(get("/api/book/exists/978-0000000000"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("false"));
+        
+        assertThat(SqlStatementCounter.count()).isZero();
+        this.mockMvc
+                .perform(get("/api/book/exists/" + ISBN))
+                .andExpect(status().isOk())
+                .andExpect(content().string("true"));
+    }
+    
+    @Test
+    @WithMockUser
+    void doesBookExists_shouldFindTheBooksCreatedByAnotherInstanceOnceRefreshed() throws Exception {
+        String isbn = "978-0593099322";
+        // Saved without the BookService, like a book created by another instance: no event reaches
+        // the filter
+        Book book = new Book(isbn,
+                             "Dune Messiah",
+                             "description",
+                             "Frank Herbert",
+                             "url2");
+        book.setCategories(Set.of(this.category));
+        this.bookRepository.save(book);
+        assertThat(this.bookExistenceFilter.mightContain(isbn)).isFalse();
+        
+        this.bookExistenceFilter.refresh();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!this.bookExistenceFilter.mightContain(isbn) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        this.mockMvc
+                .perform(get("/api/book/exists/" + isbn))
+                .andExpect(status().isOk())
+                .andExpect(content().string("true"));
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void createBook_shouldBeFoundByTheExistenceFilter() throws Exception {
+        BookDto bookDto = new BookDto("978-0593099322",
+                                      "Dune Messiah",
+                                      "description",
+                                      "Frank Herbert",
+                                      "url2",
+                                      Set.of(this.category.getId()));
+        this.mockMvc
+                .perform(post("/api/book/create")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(bookDto))
+                                 .with(csrf()))
+                .andExpect(status().isCreated());
+        
+        assertThat(this.bookExistenceFilter.mightContain(bookDto.getIsbn())).isTrue();
+        this.mockMvc
+                .perform(get("/api/book/exists/" + bookDto.getIsbn()))
+                .andExpect(content().string("true"));
+    }
+    
+    @Test
+    @WithMockUser
+    void searchBookByKey_shouldFindTheBooksCreatedByAnotherInstanceOnceRefreshed() throws Exception {
+        BookDto filter = new BookDto(null,
+                                     null,
+                                     null,
+                                     "frank herbert",
+                                     null,
+                                     null);
+        this.mockMvc
+                .perform(post("/api/book/search")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(filter))
+                                 .with(csrf()))
+                .andExpect(jsonPath("$.size()").value(1));
+        
+        // Saved without the BookService, like a book created by another instance
+        Book book = new Book("978-0593099322",
+                             "Dune Messiah",
+                             "description",
+                             "Frank Herbert",
+                             "url2");
+        book.setCategories(Set.of(this.category));
+        this.bookRepository.save(book);
+        // The existence filter, rebuilt more often, knows the book by the time the index is rebuilt
+        this.bookExistenceFilter.rebuild();
+        this.bookSearchIndex.refresh();
+        
+        // The results cached before the rebuild are not served anymore
+        this.mockMvc
+                .perform(post("/api/book/search")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(filter))
+                                 .with(csrf()))
+                .andExpect(jsonPath("$.size()").value(2));
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void searchBookByKey_shouldNotServeTheResultsCachedBeforeAnUpdate() throws Exception {
+        BookDto filter = new BookDto(null,
+                                     null,
+                                     null,
+                                     "frank herbert",
+                                     null,
+                                     null);
+        this.mockMvc
+                .perform(post("/api/book/search")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(filter))
+                                 .with(csrf()))
+                .andExpect(jsonPath("$.size()").value(1));
+        
+        // Same search once normalized, served from the cached results and books
+        filter.setAuthor("FRANK  Hérbert");
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(post("/api/book/search")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(filter))
+                                 .with(csrf()))
+                .andExpect(jsonPath("$.size()").value(1));
+        assertThat(SqlStatementCounter.count()).isZero();
+        
+        BookDto bookDto = new BookDto(ISBN,
+                                      "Dune",
+                                      "description",
+                                      "Brian Herbert",
+                                      "url",
+                                      Set.of(this.category.getId()));
+        this.mockMvc
+                .perform(put("/api/book/update/" + ISBN)
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(bookDto))
+                                 .with(csrf()))
+                .andExpect(status().isOk());
+        
+        this.mockMvc
+                .perform(post("/api/book/search")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(filter))
+                                 .with(csrf()))
+                .andExpect(jsonPath("$.size()").value(0));
+    }
+}
@@ -20,10 +20,12 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.util.HashSet;
 import java.util.List;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -48,7 +50,7 @@ class BookControllerFunctionalTest
      * It will replace all the KafkaTemplate instances.
      */
     @MockitoBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
     
     @Autowired
     private MockMvc mockMvc;
@@ -190,14 +192,57 @@ class BookControllerFunctionalTest
     @Order(8)
     @WithMockUser
     void getAllBook_withAuthenticatedUser_shouldSucceed() throws Exception {
-        this.mockMvc
+        MvcResult mvcResult = this.mockMvc
                 .perform(get("/api/book/all"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        
+        this.mockMvc
+                .perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.size()").value(1))
                 .andExpect(jsonPath("$[0].isbn").value(this.bookDto.getIsbn()))
                 .andExpect(jsonPath("$[0].title").value(this.bookDto.getTitle()));
     }
     
+    @Test
+    @Order(8)
+    @WithMockUser
+    void getBookPage_withAuthenticatedUser_shouldReturnLastPage() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/page").param("size",
+                                                     "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.size()").value(1))
+                .andExpect(jsonPath("$.books[0].isbn").value(this.bookDto.getIsbn()))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+    
+    @Test
+    @Order(8)
+    @WithMockUser
+    void getBookPage_withInvalidCursor_shouldReturnBadRequest() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/page").param("cursor",
+                                                     "not a cursor"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    @Order(8)
+    @WithMockUser
+    void streamAllBooks_withAuthenticatedUser_shouldSucceed() throws Exception {
+        MvcResult mvcResult = this.mockMvc
+                .perform(get("/api/book/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        
+        this.mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"isbn\":\"" + this.bookDto.getIsbn() + "\"")));
+    }
+    
     @Test
     @Order(9)
     @WithMockUser
@@ -252,10 +297,24 @@ class BookControllerFunctionalTest
                                  .content(asJsonString(this.bookDtoFilter))
                                  .with(csrf()))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count",
+                                           "1"))
                 .andExpect(jsonPath("$.size()").value(1))
                 .andExpect(jsonPath("$[0].isbn").value(this.bookDto.getIsbn()));
     }
     
+    @Test
+    @Order(13)
+    @WithMockUser
+    void suggest_withMatchingPrefix_shouldReturnTheTitle() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/suggest").param("prefix",
+                                                        "TIT"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size()").value(1))
+                .andExpect(jsonPath("$[0]").value(this.bookDto.getTitle()));
+    }
+    
     @Test
     @Order(14)
     @WithMockUser
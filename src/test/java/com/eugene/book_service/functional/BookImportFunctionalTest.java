@@ -0,0 +1,252 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.dto.BookImportResultDto;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Imports small documents with chunks of two rows, so the duplicates are found both within a chunk
+ * and against the chunks already committed.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "book.import.chunk-size=2")
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BookImportFunctionalTest
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    /**
+     * I don't want the context to load kafka for this test, so I'm mocking his initialization
+     * It will replace all the KafkaTemplate instances.
+     */
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private CategoryRepository categoryRepository;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    private Long categoryId;
+    
+    @BeforeEach
+    void initCategories() {
+        this.categoryId = this.categoryRepository
+                .save(new Category("art"))
+                .getId();
+    }
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.categoryRepository.deleteAll();
+        Objects
+                .requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE))
+                .clear();
+    }
+    
+    private List<BookImportResultDto> importBooks(
+            String contentType,
+            String document
+    ) throws Exception {
+        MvcResult mvcResult = this.mockMvc
+                .perform(post("/api/book/import")
+                                 .contentType(contentType)
+                                 .content(document)
+                                 .with(csrf()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String report = this.mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        
+        List<BookImportResultDto> results = new ArrayList<>();
+        for (String line : report.split("\n")) {
+            results.add(this.objectMapper.readValue(line,
+                                                    BookImportResultDto.class));
+        }
+        return results;
+    }
+    
+    @Test
+    @WithMockUser(roles = {"USER"})
+    void importBooks_withUserRole_shouldBeForbidden() throws Exception {
+        this.mockMvc
+                .perform(post("/api/book/import")
+                                 .contentType(MediaType.APPLICATION_NDJSON)
+                                 .content("{}")
+                                 .with(csrf()))
+                .andExpect(status().isForbidden());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void importBooks_ndjson_shouldReportTheOutcomeOfEachRow() throws Exception {
+        String document = String.join("\n",
+                                      "{\"isbn\":\"isbn1\",\"title\":\"title1\",\"author\":\"author1\",\"url\":\"url1\",\"categoriesIds\":[" + this.categoryId + "]}",
+                                      "{not json",
+                                      "{\"isbn\":\"isbn2\",\"title\":\"title2\",\"url\":\"url2\"}",
+                                      "{\"isbn\":\"isbn1\",\"title\":\"again\",\"author\":\"author1\",\"url\":\"url1\"}",
+                                      "",
+                                      "{\"isbn\":\"isbn3\",\"title\":\"title3\",\"author\":\"author3\",\"url\":\"url3\",\"categoriesIds\":[999]}",
+                                      "{\"isbn\":\"isbn4\",\"title\":\"title4\",\"author\":\"author4\",\"url\":\"url4\"}",
+                                      "{\"isbn\":\"isbn4\",\"title\":\"title4\",\"author\":\"author4\",\"url\":\"url4\"}");
+        
+        List<BookImportResultDto> results = importBooks(MediaType.APPLICATION_NDJSON_VALUE,
+                                                        document);
+        
+        assertThat(results)
+                .extracting(BookImportResultDto::getLine)
+                .containsExactly(1L,
+                                 2L,
+                                 3L,
+                                 4L,
+                                 6L,
+                                 7L,
+                                 8L);
+        assertThat(results)
+                .extracting(BookImportResultDto::getStatus)
+                .containsExactly(BookImportResultDto.Status.CREATED,
+                                 BookImportResultDto.Status.INVALID,
+                                 BookImportResultDto.Status.INVALID,
+                                 BookImportResultDto.Status.DUPLICATED,
+                                 BookImportResultDto.Status.INVALID,
+                                 BookImportResultDto.Status.CREATED,
+                                 BookImportResultDto.Status.DUPLICATED);
+        assertThat(results
+                           .get(2)
+                           .getMessage()).isEqualTo("The author is required.");
+        assertThat(this.bookRepository.findAll())
+                .extracting(Book::getIsbn)
+                .containsExactlyInAnyOrder("isbn1",
+                                           "isbn4");
+        
+        this.mockMvc
+                .perform(get("/api/book/isbn1"))
+                .andExpect(jsonPath("$.categories[0]").value("art"));
+        this.mockMvc
+                .perform(get("/api/book/exists/isbn4"))
+                .andExpect(content().string("true"));
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void importBooks_csv_shouldReadTheQuotedFields() throws Exception {
+        String document = String.join("\n",
+                                      "isbn,title,author,url,categoriesIds",
+                                      "isbn1,\"Title, with \"\"quotes\"\"\",author1,url1," + this.categoryId,
+                                      "isbn2,title2,author2,url2,one;two",
+                                      "isbn3,\"not closed,author3,url3,");
+        
+        List<BookImportResultDto> results = importBooks("text/csv",
+                                                        document);
+        
+        assertThat(results)
+                .extracting(BookImportResultDto::getStatus)
+                .containsExactly(BookImportResultDto.Status.CREATED,
+                                 BookImportResultDto.Status.INVALID,
+                                 BookImportResultDto.Status.INVALID);
+        this.mockMvc
+                .perform(get("/api/book/isbn1"))
+                .andExpect(jsonPath("$.title").value("Title, with \"quotes\""))
+                .andExpect(jsonPath("$.description").doesNotExist());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void importBooks_shouldReportTheDuplicatedUrlsOfEachRow() throws Exception {
+        // The second row repeats the URL within its chunk, the third one in the next chunk
+        String document = String.join("\n",
+                                      "{\"isbn\":\"isbn1\",\"title\":\"title1\",\"author\":\"author1\",\"url\":\"url1\"}",
+                                      "{\"isbn\":\"isbn2\",\"title\":\"title2\",\"author\":\"author2\",\"url\":\"url1\"}",
+                                      "{\"isbn\":\"isbn3\",\"title\":\"title3\",\"author\":\"author3\",\"url\":\"url1\"}",
+                                      "{\"isbn\":\"isbn4\",\"title\":\"title4\",\"author\":\"author4\",\"url\":\"url4\"}");
+        
+        List<BookImportResultDto> results = importBooks(MediaType.APPLICATION_NDJSON_VALUE,
+                                                        document);
+        
+        assertThat(results)
+                .extracting(BookImportResultDto::getStatus)
+                .containsExactly(BookImportResultDto.Status.CREATED,
+                                 BookImportResultDto.Status.DUPLICATED,
+                                 BookImportResultDto.Status.DUPLICATED,
+                                 BookImportResultDto.Status.CREATED);
+        assertThat(results
+                           .get(2)
+                           .getMessage()).isEqualTo("Book with URL 'url1' already exists.");
+        assertThat(this.bookRepository.findAll())
+                .extracting(Book::getIsbn)
+                .containsExactlyInAnyOrder("isbn1",
+                                           "isbn4");
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void importBooks_shouldNotQueryEachRow() throws Exception {
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            document
+                    .append("{\"isbn\":\"isbn")
+                    .append(i)
+                    .append("\",\"title\":\"title\",\"author\":\"author\",\"url\":\"url")
+                    .append(i)
+                    .append("\",\"categoriesIds\":[")
+                    .append(this.categoryId)
+                    .append("]}\n");
+        }
+        
+        SqlStatementCounter.reset();
+        List<BookImportResultDto> results = importBooks(MediaType.APPLICATION_NDJSON_VALUE,
+                                                        document.toString());
+        
+        assertThat(results)
+                .extracting(BookImportResultDto::getStatus)
+                .containsOnly(BookImportResultDto.Status.CREATED);
+        assertThat(this.bookRepository.count()).isEqualTo(20);
+        // Per chunk of two rows: the existing ISBNs and URLs, the categories, and the batched inserts
+        // of the books and of their categories
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(10 * 5 + 1);
+    }
+}
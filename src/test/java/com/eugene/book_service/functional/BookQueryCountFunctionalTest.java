@@ -0,0 +1,427 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.cache.BookExistenceFilter;
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.BookReviewsRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import com.eugene.book_service.repository.specification.BookSpecification;
+import com.eugene.book_service.search.BookSearchIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Guards the list, search and batch endpoints against N+1 queries: the number of SQL statements
+ * of a request must not grow with the number of books it returns. The creation of a book must
+ * only insert it, the partial update of a book must only write what changed.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BookQueryCountFunctionalTest
+{
+    private static final int BOOK_COUNT = 30;
+    private static final long MAX_STATEMENTS = 3;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    /**
+     * I don't want the context to load kafka for this test, so I'm mocking his initialization
+     * It will replace all the KafkaTemplate instances.
+     */
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private CategoryRepository categoryRepository;
+    
+    @Autowired
+    private BookReviewsRepository bookReviewsRepository;
+    
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+    
+    @Autowired
+    private BookExistenceFilter bookExistenceFilter;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    @BeforeEach
+    void initCatalog() {
+        List<Category> categories = this.categoryRepository.saveAll(List.of(new Category("art"),
+                                                                            new Category("science")));
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            Book book = new Book("isbn" + (100 + i),
+                                 "title " + i,
+                                 "description " + i,
+                                 "author " + i,
+                                 "url" + i);
+            book.setCategories(new HashSet<>(categories));
+            book.setReviewsIds(Set.of(3L * i,
+                                      3L * i + 1,
+                                      3L * i + 2));
+            this.bookRepository.save(book);
+        }
+        // The books are saved without the BookService
+        this.bookSearchIndex.rebuild();
+        this.bookExistenceFilter.rebuild();
+    }
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.categoryRepository.deleteAll();
+        Objects
+                .requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE))
+                .clear();
+    }
+    
+    private long countStatements(RequestBuilder request) throws Exception {
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(request)
+                .andExpect(status().isOk());
+        return SqlStatementCounter.count();
+    }
+    
+    @Test
+    @WithMockUser
+    void getAllBook_shouldNotIssueOneQueryPerBook() throws Exception {
+        SqlStatementCounter.reset();
+        MvcResult mvcResult = this.mockMvc
+                .perform(get("/api/book/all"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(jsonPath("$.size()").value(BOOK_COUNT))
+                .andExpect(jsonPath("$[0].categories.size()").value(2))
+                .andExpect(jsonPath("$[0].reviewsIds.size()").value(3));
+        
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(MAX_STATEMENTS);
+    }
+    
+    @Test
+    @WithMockUser
+    void getBookPage_shouldNotDependOnThePageSize() throws Exception {
+        long smallPage = countStatements(get("/api/book/page").param("size",
+                                                                    "2"));
+        long fullPage = countStatements(get("/api/book/page").param("size",
+                                                                   String.valueOf(BOOK_COUNT)));
+        
+        assertThat(fullPage)
+                .isEqualTo(smallPage)
+                .isLessThanOrEqualTo(MAX_STATEMENTS);
+    }
+    
+    @Test
+    @WithMockUser
+    void searchBookByKey_shouldNotIssueOneQueryPerBook() throws Exception {
+        BookDto filter = new BookDto(null,
+                                     "title",
+                                     null,
+                                     null,
+                                     null,
+                                     null);
+        
+        RequestBuilder request = post("/api/book/search")
+                .param("size",
+                       String.valueOf(BOOK_COUNT))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(this.objectMapper.writeValueAsString(filter))
+                .with(csrf());
+        this.mockMvc
+                .perform(request)
+                .andExpect(jsonPath("$.size()").value(BOOK_COUNT));
+        
+        assertThat(countStatements(request)).isLessThanOrEqualTo(MAX_STATEMENTS);
+    }
+    
+    @Test
+    void searchFallback_shouldIgnoreTheCaseLikeTheIndex() {
+        BookDto filter = new BookDto();
+        filter.setTitle(" TITLE 21");
+        filter.setAuthor("Author 7");
+        
+        // The specification used until the search index is ready
+        assertThat(this.bookRepository.findAll(BookSpecification.filterBy(filter)))
+                .extracting(Book::getIsbn)
+                .containsExactlyInAnyOrder("isbn107",
+                                           "isbn121");
+    }
+    
+    @Test
+    @WithMockUser
+    void streamAllBooks_shouldNotIssueOneQueryPerBook() throws Exception {
+        SqlStatementCounter.reset();
+        MvcResult mvcResult = this.mockMvc
+                .perform(get("/api/book/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+        
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(MAX_STATEMENTS);
+        assertThat(mvcResult
+                           .getResponse()
+                           .getContentAsString()
+                           .lines()).hasSize(BOOK_COUNT);
+    }
+    
+    @Test
+    @WithMockUser
+    void getBooksByIsbns_shouldNotIssueOneQueryPerBook() throws Exception {
+        List<String> isbns = IntStream
+                .range(0,
+                       BOOK_COUNT)
+                .mapToObj(i -> "isbn" + (100 + i))
+                .toList();
+        
+        RequestBuilder request = post("/api/book/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(this.objectMapper.writeValueAsString(isbns))
+                .with(csrf());
+        assertThat(countStatements(request)).isLessThanOrEqualTo(MAX_STATEMENTS);
+        // The books are now cached
+        assertThat(countStatements(request)).isZero();
+        this.mockMvc
+                .perform(request)
+                .andExpect(jsonPath("$.size()").value(BOOK_COUNT))
+                .andExpect(jsonPath("$.isbn100.categories.size()").value(2));
+    }
+    
+    @Test
+    @WithMockUser
+    void doBooksExist_shouldIssueASingleQuery() throws Exception {
+        RequestBuilder request = post("/api/book/exists")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(this.objectMapper.writeValueAsString(List.of("isbn100",
+                                                                      "isbn101",
+                                                                      "unknown")))
+                .with(csrf());
+        
+        assertThat(countStatements(request)).isLessThanOrEqualTo(1);
+        this.mockMvc
+                .perform(request)
+                .andExpect(jsonPath("$.isbn100").value(true))
+                .andExpect(jsonPath("$.isbn101").value(true))
+                .andExpect(jsonPath("$.unknown").value(false));
+    }
+    
+    @Test
+    @WithMockUser
+    void doBooksExist_shouldRejectTooManyIsbns() throws Exception {
+        List<String> isbns = IntStream
+                .range(0,
+                       101)
+                .mapToObj(i -> "isbn" + i)
+                .toList();
+        
+        this.mockMvc
+                .perform(post("/api/book/exists")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(this.objectMapper.writeValueAsString(isbns))
+                                 .with(csrf()))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void addReviewsIds_shouldOnlyInsertTheNewRowsOfKnownBooks() {
+        long version = this.bookRepository
+                .findVersionByIsbn("isbn100")
+                .orElseThrow();
+        
+        Set<String> changedIsbns = this.bookReviewsRepository.addReviewsIds(Map.of("isbn100",
+                                                                                   ReviewIdSet.of(0L,
+                                                                                                  1000L),
+                                                                                   "unknown",
+                                                                                   ReviewIdSet.of(1001L)));
+        
+        // The review 0 was already there, the unknown book gets no row
+        assertThat(changedIsbns).containsExactly("isbn100");
+        assertThat(this.jdbcTemplate.queryForList("SELECT reviews_ids FROM book_reviews_ids WHERE book_isbn = 'isbn100'",
+                                                  Long.class)).containsExactlyInAnyOrder(0L,
+                                                                                         1L,
+                                                                                         2L,
+                                                                                         1000L);
+        assertThat(this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM book_reviews_ids WHERE book_isbn = 'unknown'",
+                                                    Long.class)).isZero();
+        assertThat(this.bookRepository.findVersionByIsbn("isbn100")).contains(version + 1);
+    }
+    
+    private RequestBuilder createBookRequest(
+            String isbn,
+            String url
+    ) throws Exception {
+        Set<Long> categoriesIds = new HashSet<>();
+        this.categoryRepository
+                .findAll()
+                .forEach(category -> categoriesIds.add(category.getId()));
+        BookDto bookDto = new BookDto(isbn,
+                                      "title",
+                                      "description",
+                                      "author",
+                                      url,
+                                      categoriesIds);
+        return post("/api/book/create")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(this.objectMapper.writeValueAsString(bookDto))
+                .with(csrf());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void createBook_shouldOnlyInsert() throws Exception {
+        // Loads the category names
+        this.mockMvc
+                .perform(createBookRequest("isbn1",
+                                           "url-1"))
+                .andExpect(status().isCreated());
+        
+        RequestBuilder request = createBookRequest("isbn2",
+                                                   "url-2");
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(request)
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.categories.size()").value(2));
+        
+        // The book, then its categories in a single batch
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(2);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void createBook_withDuplicatedUrl_shouldBeConflict() throws Exception {
+        this.mockMvc
+                .perform(createBookRequest("isbn1",
+                                           "url0"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value("Book with URL 'url0' already exists."));
+        
+        assertThat(this.bookRepository.existsById("isbn1")).isFalse();
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withTitle_shouldOnlyUpdateTheBook() throws Exception {
+        RequestBuilder request = patch("/api/book/update/{isbn}",
+                                       "isbn100")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"title\":\"new title\"}")
+                .with(csrf());
+        
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.title").value("new title"))
+                .andExpect(jsonPath("$.description").value("description 0"))
+                .andExpect(jsonPath("$.categories.size()").value(2))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(3));
+        
+        // The book, its update, then the three queries of the details
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(5);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withCategories_shouldOnlyWriteTheDifference() throws Exception {
+        Category art = this.categoryRepository
+                .findAll()
+                .stream()
+                .filter(category -> category
+                        .getName()
+                        .equals("art"))
+                .findFirst()
+                .orElseThrow();
+        Long poetryId = this.categoryRepository
+                .save(new Category("poetry"))
+                .getId();
+        RequestBuilder request = patch("/api/book/update/{isbn}",
+                                       "isbn100")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(this.objectMapper.writeValueAsString(Map.of("categoriesIds",
+                                                                     List.of(art.getId(),
+                                                                             poetryId))))
+                .with(csrf());
+        
+        this.mockMvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.title").value("title 0"))
+                .andExpect(jsonPath("$.categories.size()").value(2))
+                .andExpect(jsonPath("$.categories",
+                                    containsInAnyOrder("art",
+                                                       "poetry")))
+                .andExpect(jsonPath("$.reviewsIds.size()").value(3));
+        
+        // The categories are already the requested ones: nothing is written
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(request)
+                .andExpect(status().isOk());
+        assertThat(SqlStatementCounter.count()).isLessThanOrEqualTo(5);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withDuplicatedUrl_shouldBeConflict() throws Exception {
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               "isbn100")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"url\":\"url1\"}")
+                                 .with(csrf()))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value("Book with URL 'url1' already exists."));
+    }
+}
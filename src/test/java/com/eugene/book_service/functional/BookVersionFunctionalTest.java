@@ -0,0 +1,281 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.config.CacheConfig;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.Category;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.BookReviewsRepository;
+import com.eugene.book_service.repository.CategoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Follows the version of a book, exposed as its ETag, through the changes of its fields, categories
+ * and reviews.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BookVersionFunctionalTest
+{
+    private static final String ISBN = "isbn1";
+    
+    /**
+     * I don't want the context to load kafka for this test, so I'm mocking his initialization
+     * It will replace all the KafkaTemplate instances.
+     */
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private BookReviewsRepository bookReviewsRepository;
+    
+    @Autowired
+    private CategoryRepository categoryRepository;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    private Long categoryId;
+    
+    @BeforeEach
+    void initCatalog() {
+        Category category = this.categoryRepository.save(new Category("art"));
+        this.categoryId = category.getId();
+        Book book = new Book(ISBN,
+                             "title",
+                             "description",
+                             "author",
+                             "url");
+        book
+                .getCategories()
+                .add(category);
+        this.bookRepository.save(book);
+    }
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.categoryRepository.deleteAll();
+        books().clear();
+    }
+    
+    private Cache books() {
+        return Objects.requireNonNull(this.cacheManager.getCache(CacheConfig.BOOKS_CACHE));
+    }
+    
+    private long version() {
+        return this.bookRepository
+                .findVersionByIsbn(ISBN)
+                .orElseThrow();
+    }
+    
+    @Test
+    @WithMockUser
+    void getBookByIsbn_withCurrentETag_shouldOnlyReadTheVersion() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             ISBN))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"0\""));
+        
+        // The book is cached
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             ISBN).header(HttpHeaders.IF_NONE_MATCH,
+                                          "\"0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        assertThat(SqlStatementCounter.count()).isZero();
+        
+        books().clear();
+        SqlStatementCounter.reset();
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             ISBN).header(HttpHeaders.IF_NONE_MATCH,
+                                          "\"0\""))
+                .andExpect(status().isNotModified());
+        assertThat(SqlStatementCounter.count()).isEqualTo(1);
+        
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             "unknown").header(HttpHeaders.IF_NONE_MATCH,
+                                               "\"0\""))
+                .andExpect(status().isNotFound());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withStaleIfMatch_shouldBePreconditionFailed() throws Exception {
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               ISBN)
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "\"0\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"first\"}")
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"1\""));
+        
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               ISBN)
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "\"0\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"second\"}")
+                                 .with(csrf()))
+                .andExpect(status().isPreconditionFailed());
+        
+        this.mockMvc
+                .perform(get("/api/book/{isbn}",
+                             ISBN))
+                .andExpect(jsonPath("$.title").value("first"))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"1\""));
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withCategoriesOnly_shouldIncrementTheVersion() throws Exception {
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               ISBN)
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"categoriesIds\":[]}")
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.categories.size()").value(0))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"1\""));
+        
+        // Nothing changed
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               ISBN)
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"title\",\"categoriesIds\":[]}")
+                                 .with(csrf()))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"1\""));
+    }
+    
+    @Test
+    void reviewsChanges_shouldIncrementTheVersion() {
+        this.bookReviewsRepository.addReviewsIds(Map.of(ISBN,
+                                                        ReviewIdSet.of(1L,
+                                                                       2L)));
+        assertThat(version()).isEqualTo(1);
+        
+        // Already there
+        this.bookReviewsRepository.addReviewsIds(Map.of(ISBN,
+                                                        ReviewIdSet.of(1L)));
+        assertThat(version()).isEqualTo(1);
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void deleteBook_withoutIfMatch_shouldWaitForAConcurrentReviewInsteadOfConflicting() throws Exception {
+        CountDownLatch reviewAdded = new CountDownLatch(1);
+        Thread reviewer = new Thread(() -> this.transactionTemplate.executeWithoutResult(status -> {
+            this.bookReviewsRepository.addReviewsIds(Map.of(ISBN,
+                                                            ReviewIdSet.of(1L)));
+            reviewAdded.countDown();
+            // The deletion starts while the review bumping the version is not committed yet
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread
+                        .currentThread()
+                        .interrupt();
+            }
+        }));
+        reviewer.start();
+        assertThat(reviewAdded.await(5,
+                                     TimeUnit.SECONDS)).isTrue();
+        
+        this.mockMvc
+                .perform(delete("/api/book/delete/{isbn}",
+                                ISBN)
+                                 .with(csrf()))
+                .andExpect(status().isNoContent());
+        reviewer.join();
+        assertThat(this.bookRepository.existsById(ISBN)).isFalse();
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void updateCategory_shouldIncrementTheVersionOfItsBooks() throws Exception {
+        this.mockMvc
+                .perform(get("/api/category/{idCategory}",
+                             this.categoryId))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"0\""));
+        
+        this.mockMvc
+                .perform(put("/api/category/update/{idCategory}",
+                             this.categoryId)
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "\"0\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"name\":\"painting\"}")
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"1\""));
+        assertThat(version()).isEqualTo(1);
+        
+        this.mockMvc
+                .perform(put("/api/category/update/{idCategory}",
+                             this.categoryId)
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "\"0\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"name\":\"sculpture\"}")
+                                 .with(csrf()))
+                .andExpect(status().isPreconditionFailed());
+    }
+}
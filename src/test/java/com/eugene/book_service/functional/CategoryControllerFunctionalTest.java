@@ -40,7 +40,7 @@ class CategoryControllerFunctionalTest
      * It will replace all the KafkaTemplate instances.
      */
     @MockitoBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
     
     @Autowired
     private MockMvc mockMvc;
@@ -0,0 +1,87 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.kafka.DeadLetterReplayer;
+import com.eugene.book_service.kafka.FailedEventRecoverer;
+import com.eugene.book_service.kafka.KafkaTopicConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A review event which can't be decoded must be moved to the dead-letter topic without blocking
+ * its partition, and be replayed from there.
+ */
+@SpringBootTest(properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "book.kafka.topics.partitions=1"})
+@EmbeddedKafka(partitions = 1, topics = {KafkaTopicConfig.REVIEW_EVENTS, KafkaTopicConfig.REVIEW_EVENTS_RETRY, KafkaTopicConfig.REVIEW_EVENTS_DLT})
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class DeadLetterFunctionalTest
+{
+    @Autowired
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private DeadLetterReplayer deadLetterReplayer;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+    
+    @Test
+    void poisonReviewEvent_shouldBeMovedToTheDeadLetterTopicAndReplayed() throws Exception {
+        byte[] poison = "{not json".getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("dead-letter-test",
+                                                                         "false",
+                                                                         this.embeddedKafkaBroker);
+        try (Consumer<String, byte[]> consumer = new DefaultKafkaConsumerFactory<>(consumerProps,
+                                                                                   new StringDeserializer(),
+                                                                                   new ByteArrayDeserializer()).createConsumer()) {
+            this.embeddedKafkaBroker.consumeFromAnEmbeddedTopic(consumer,
+                                                                KafkaTopicConfig.REVIEW_EVENTS_DLT);
+            
+            this.kafkaTemplate
+                    .send(KafkaTopicConfig.REVIEW_EVENTS,
+                          "isbn1",
+                          poison)
+                    .get();
+            
+            ConsumerRecord<String, byte[]> record = KafkaTestUtils.getSingleRecord(consumer,
+                                                                                   KafkaTopicConfig.REVIEW_EVENTS_DLT,
+                                                                                   Duration.ofSeconds(30));
+            assertThat(record.key()).isEqualTo("isbn1");
+            assertThat(record.value()).isEqualTo(poison);
+        }
+        assertThat(this.meterRegistry
+                           .get("book.kafka.consumer.failures")
+                           .tag("topic",
+                                KafkaTopicConfig.REVIEW_EVENTS)
+                           .tag("stage",
+                                FailedEventRecoverer.DECODE)
+                           .counter()
+                           .count()).isEqualTo(1);
+        
+        assertThat(this.deadLetterReplayer.replay(KafkaTopicConfig.REVIEW_EVENTS_DLT)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.kafka.KafkaTopicConfig;
+import com.eugene.book_service.kafka.OutboxRelay;
+import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.OutboxEvent;
+import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.OutboxEventRepository;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Relays the outbox to an embedded broker: the event of a deleted book must reach book.events,
+ * keyed by ISBN, and leave the outbox. An event failing too many times must be parked.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "book.outbox.relay.enabled=true",
+        "book.outbox.relay.delay-ms=100",
+        "book.outbox.relay.max-attempts=2"})
+@EmbeddedKafka(partitions = 1, topics = {KafkaTopicConfig.BOOK_EVENTS})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class OutboxRelayFunctionalTest
+{
+    private static final String ISBN = "978-0441172719";
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private BookRepository bookRepository;
+    
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+    
+    @Autowired
+    private OutboxRelay outboxRelay;
+    
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+    
+    @AfterEach
+    void cleanCatalog() {
+        this.bookRepository.deleteAll();
+        this.outboxEventRepository.deleteAll();
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void deleteBook_shouldRelayTheEventKeyedByIsbn() throws Exception {
+        Book book = new Book(ISBN,
+                             "Dune",
+                             "description",
+                             "Frank Herbert",
+                             "url");
+        book.setReviewsIds(Set.of(1L,
+                                  2L));
+        this.bookRepository.save(book);
+        
+        Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("outbox-test",
+                                                                         "false",
+                                                                         this.embeddedKafkaBroker);
+        try (Consumer<String, String> consumer = new DefaultKafkaConsumerFactory<>(consumerProps,
+                                                                                   new StringDeserializer(),
+                                                                                   new StringDeserializer()).createConsumer()) {
+            this.embeddedKafkaBroker.consumeFromAnEmbeddedTopic(consumer,
+                                                                KafkaTopicConfig.BOOK_EVENTS);
+            
+            this.mockMvc
+                    .perform(delete("/api/book/delete/" + ISBN))
+                    .andExpect(status().isNoContent());
+            this.outboxRelay.relay();
+            
+            ConsumerRecord<String, String> record = KafkaTestUtils.getSingleRecord(consumer,
+                                                                                   KafkaTopicConfig.BOOK_EVENTS,
+                                                                                   Duration.ofSeconds(10));
+            assertThat(record.key()).isEqualTo(ISBN);
+            assertThat(record.value()).contains("BOOK_DELETED");
+        }
+        assertThat(this.outboxEventRepository.count()).isZero();
+    }
+    
+    @Test
+    void relay_shouldParkTheEventsFailingTooManyTimes() {
+        // The space makes the topic name invalid, so the broker rejects every send
+        OutboxEvent event = new OutboxEvent("invalid topic",
+                                            ISBN,
+                                            "{}".getBytes(StandardCharsets.UTF_8),
+                                            "json");
+        event.setAttempts(1);
+        long id = this.outboxEventRepository
+                .save(event)
+                .getId();
+        
+        this.outboxRelay.relay();
+        
+        OutboxEvent parked = this.outboxEventRepository
+                .findById(id)
+                .orElseThrow();
+        assertThat(parked.getAttempts()).isEqualTo(2);
+        assertThat(parked.getParkedAt()).isNotNull();
+        
+        this.outboxRelay.relay();
+        
+        assertThat(this.outboxEventRepository
+                           .findById(id)
+                           .orElseThrow()
+                           .getAttempts()).isEqualTo(2);
+    }
+}
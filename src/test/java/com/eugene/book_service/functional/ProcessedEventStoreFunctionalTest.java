@@ -0,0 +1,61 @@
+package com.eugene.book_service.functional;
+
+import com.eugene.book_service.kafka.ProcessedEventStore;
+import com.eugene.book_service.model.ProcessedEvent;
+import com.eugene.book_service.repository.ProcessedEventRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the processed events stored in the database, between the end of their window and their
+ * purge.
+ */
+@SpringBootTest
+@ImportAutoConfiguration(exclude = {KafkaAutoConfiguration.class})
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class ProcessedEventStoreFunctionalTest
+{
+    @MockitoBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    
+    @Autowired
+    private ProcessedEventStore processedEventStore;
+    
+    @Autowired
+    private ProcessedEventRepository processedEventRepository;
+    
+    @AfterEach
+    void cleanEvents() {
+        this.processedEventRepository.deleteAll();
+    }
+    
+    @Test
+    void findProcessed_shouldSkipTheEventsOlderThanTheWindowUntilTheyArePurged() {
+        // Processed two days ago by another instance, the hourly purge didn't run yet
+        this.processedEventRepository.save(new ProcessedEvent("event1",
+                                                              Instant
+                                                                      .now()
+                                                                      .minus(Duration.ofDays(2))));
+        
+        assertThat(this.processedEventStore.findProcessed(List.of("event1",
+                                                                  "event2"))).containsExactly("event1");
+        
+        this.processedEventStore.purge();
+        assertThat(this.processedEventRepository.count()).isZero();
+    }
+}
@@ -0,0 +1,30 @@
+package com.eugene.book_service.functional;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hibernate hands every SQL statement to this inspector before preparing it.
+ * It is registered in the test profile, so the functional tests can assert how many
+ * statements a request costs.
+ */
+public class SqlStatementCounter
+        implements StatementInspector
+{
+    private static final AtomicLong COUNT = new AtomicLong();
+    
+    public static void reset() {
+        COUNT.set(0);
+    }
+    
+    public static long count() {
+        return COUNT.get();
+    }
+    
+    @Override
+    public String inspect(String sql) {
+        COUNT.incrementAndGet();
+        return sql;
+    }
+}
@@ -0,0 +1,62 @@
+package com.eugene.book_service.unit.cache;
+
+import com.eugene.book_service.cache.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BloomFilterTest
+{
+    private static final int INSERTIONS = 10_000;
+    
+    @Test
+    void mightContain_shouldAlwaysFindThePutValues() {
+        BloomFilter filter = BloomFilter.create(INSERTIONS,
+                                                0.01);
+        for (int i = 0; i < INSERTIONS; i++) {
+            filter.put("isbn" + i);
+        }
+        
+        for (int i = 0; i < INSERTIONS; i++) {
+            assertThat(filter.mightContain("isbn" + i)).isTrue();
+        }
+    }
+    
+    @Test
+    void mightContain_shouldStayCloseToTheFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(INSERTIONS,
+                                                0.01);
+        for (int i = 0; i < INSERTIONS; i++) {
+            filter.put("isbn" + i);
+        }
+        
+        int falsePositives = 0;
+        for (int i = 0; i < INSERTIONS; i++) {
+            if (filter.mightContain("unknown" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / INSERTIONS).isLessThan(0.02);
+        assertThat(filter.falsePositiveRate()).isBetween(0.005,
+                                                         0.02);
+        // About 9.6 bits per value for 1%
+        assertThat(filter.sizeInBytes()).isBetween(11_000L,
+                                                   13_000L);
+    }
+    
+    @Test
+    void mightContain_shouldFindNothingInAnEmptyFilter() {
+        BloomFilter filter = BloomFilter.create(INSERTIONS,
+                                                0.01);
+        
+        assertThat(filter.mightContain("isbn")).isFalse();
+        assertThat(filter.falsePositiveRate()).isZero();
+    }
+    
+    @Test
+    void create_shouldRejectAnInvalidFalsePositiveRate() {
+        assertThatThrownBy(() -> BloomFilter.create(INSERTIONS,
+                                                    1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,98 @@
+package com.eugene.book_service.unit.cache;
+
+import com.eugene.book_service.cache.BookExistenceFilter;
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.service.BookChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class BookExistenceFilterTest
+{
+    @Mock
+    private BookReadRepository bookReadRepository;
+    private BookExistenceFilter bookExistenceFilter;
+    
+    private static BookChangedEvent deleted(String isbn) {
+        return BookChangedEvent.deleted(new BookSummaryDto(isbn,
+                                                           "title",
+                                                           "description",
+                                                           "author",
+                                                           "url" + isbn,
+                                                           0L));
+    }
+    
+    @AfterEach
+    void shutdownFilter() {
+        if (this.bookExistenceFilter != null) {
+            this.bookExistenceFilter.shutdown();
+        }
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void onBookChanged_shouldRebuildInTheBackgroundOnceTooManyBooksAreDeleted() throws InterruptedException {
+        CountDownLatch rebuildStarted = new CountDownLatch(1);
+        CountDownLatch releaseRebuild = new CountDownLatch(1);
+        given(this.bookReadRepository.countBooks()).willReturn(3L);
+        doAnswer(invocation -> {
+            Consumer<String> consumer = invocation.getArgument(0);
+            consumer.accept("isbn1");
+            consumer.accept("isbn2");
+            consumer.accept("isbn3");
+            return null;
+        })
+                .doAnswer(invocation -> {
+                    rebuildStarted.countDown();
+                    assertThat(releaseRebuild.await(5,
+                                                    TimeUnit.SECONDS)).isTrue();
+                    Consumer<String> consumer = invocation.getArgument(0);
+                    consumer.accept("isbn3");
+                    return null;
+                })
+                .when(this.bookReadRepository)
+                .streamAllIsbns(any(Consumer.class));
+        this.bookExistenceFilter = new BookExistenceFilter(this.bookReadRepository,
+                                                           new SimpleMeterRegistry(),
+                                                           100,
+                                                           0.01,
+                                                           0.5);
+        this.bookExistenceFilter.rebuild();
+        
+        this.bookExistenceFilter.onBookChanged(deleted("isbn1"));
+        this.bookExistenceFilter.onBookChanged(deleted("isbn2"));
+        
+        // The listener returned while the rebuild is running, and the current filter still answers
+        assertThat(rebuildStarted.await(5,
+                                        TimeUnit.SECONDS)).isTrue();
+        this.bookExistenceFilter.onBookChanged(deleted("isbn3"));
+        assertThat(this.bookExistenceFilter.mightContain("isbn1")).isTrue();
+        
+        releaseRebuild.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.bookExistenceFilter.mightContain("isbn1") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(this.bookExistenceFilter.mightContain("isbn1")).isFalse();
+        assertThat(this.bookExistenceFilter.mightContain("isbn3")).isTrue();
+        // A single rebuild for the deletions made while it was running
+        verify(this.bookReadRepository,
+               times(2)).streamAllIsbns(any(Consumer.class));
+    }
+}
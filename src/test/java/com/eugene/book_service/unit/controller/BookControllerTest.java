@@ -4,6 +4,13 @@ import com.eugene.book_service.config.SecurityConfig;
 import com.eugene.book_service.controller.BookController;
 import com.eugene.book_service.dto.BookDetailsDto;
 import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookPageDto;
+import com.eugene.book_service.dto.BookPatchDto;
+import com.eugene.book_service.dto.BookSearchResultDto;
+import com.eugene.book_service.exception.ConflictException;
+import com.eugene.book_service.exception.PreconditionFailedException;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.service.BookImportService;
 import com.eugene.book_service.service.BookService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -12,19 +19,28 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -45,6 +61,9 @@ class BookControllerTest
     @MockitoBean
     private BookService bookService;
     
+    @MockitoBean
+    private BookImportService bookImportService;
+    
     static String asJsonString(final Object obj) {
         try {
             final ObjectMapper mapper = new ObjectMapper();
@@ -75,9 +94,10 @@ class BookControllerTest
                                                  new HashSet<>(List.of("art",
                                                                        "music",
                                                                        "science")),
-                                                 new HashSet<>(List.of(1L,
-                                                                       2L,
-                                                                       3L)));
+                                                 ReviewIdSet.of(1L,
+                                                                2L,
+                                                                3L),
+                                                 4L);
         
         this.bookList = List.of(new BookDetailsDto("isbn11",
                                                    "String title",
@@ -85,7 +105,8 @@ class BookControllerTest
                                                    "String author",
                                                    "String url",
                                                    new HashSet<>(),
-                                                   new HashSet<>()));
+                                                   ReviewIdSet.empty(),
+                                                   0L));
     }
     
     @Test
@@ -119,16 +140,26 @@ class BookControllerTest
     
     @Test
     @WithMockUser
+    @SuppressWarnings("unchecked")
     void getAllBook() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<BookDetailsDto> consumer = invocation.getArgument(0);
+            this.bookList.forEach(consumer);
+            return null;
+        })
+                .when(this.bookService)
+                .streamAllBooks(any(Consumer.class));
         
-        given(this.bookService.getAllBook()).willReturn(this.bookList);
+        MvcResult mvcResult = this.mockMvc
+                .perform(get("/api/book/all"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
         
         this.mockMvc
-                .perform(get("/api/book/all"))
+                .perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$.size()").value(this.bookList.size()));
-        
-        verify(this.bookService).getAllBook();
     }
     
     @Test
@@ -138,6 +169,58 @@ class BookControllerTest
                 .andExpect(status().isUnauthorized());
     }
     
+    @Test
+    @WithMockUser
+    void getBookPage() throws Exception {
+        given(this.bookService.getBookPage("cursor",
+                                           10)).willReturn(new BookPageDto(this.bookList,
+                                                                           "nextCursor"));
+        
+        this.mockMvc
+                .perform(get("/api/book/page")
+                                 .param("cursor",
+                                        "cursor")
+                                 .param("size",
+                                        "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.size()").value(this.bookList.size()))
+                .andExpect(jsonPath("$.nextCursor").value("nextCursor"));
+        
+        verify(this.bookService).getBookPage("cursor",
+                                             10);
+    }
+    
+    @Test
+    @WithMockUser
+    @SuppressWarnings("unchecked")
+    void streamAllBooks() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<BookDetailsDto> consumer = invocation.getArgument(0);
+            this.bookList.forEach(consumer);
+            return null;
+        })
+                .when(this.bookService)
+                .streamAllBooks(any(Consumer.class));
+        
+        MvcResult mvcResult = this.mockMvc
+                .perform(get("/api/book/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        
+        this.mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(asJsonString(this.bookList.getFirst()) + "\n"));
+    }
+    
+    @Test
+    void streamAllBooks_shouldBeUnauthorizedWithoutAuthentication() throws Exception {
+        this.mockMvc
+                .perform(get("/api/book/stream"))
+                .andExpect(status().isUnauthorized());
+    }
+    
     @Test
     @WithMockUser
     void getBookByIsbn() throws Exception {
@@ -146,25 +229,79 @@ class BookControllerTest
         this.mockMvc
                 .perform(get("/api/book/" + this.bookDto.getIsbn()))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.isbn").value(this.bookDetailsDto.getIsbn()));
+                .andExpect(jsonPath("$.isbn").value(this.bookDetailsDto.getIsbn()))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"4\""));
         
         verify(this.bookService).getBookByIsbn(this.bookDto.getIsbn());
     }
     
+    @Test
+    @WithMockUser
+    void getBookByIsbn_withCurrentETag_shouldNotBuildTheBook() throws Exception {
+        given(this.bookService.getBookVersion(this.bookDto.getIsbn())).willReturn(4L);
+        
+        this.mockMvc
+                .perform(get("/api/book/" + this.bookDto.getIsbn()).header(HttpHeaders.IF_NONE_MATCH,
+                                                                            "\"4\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG,
+                                           "\"4\""));
+        
+        verify(this.bookService,
+               never()).getBookByIsbn(anyString());
+    }
+    
+    @Test
+    @WithMockUser
+    void getBookByIsbn_withStaleETag_shouldReturnTheBook() throws Exception {
+        given(this.bookService.getBookVersion(this.bookDto.getIsbn())).willReturn(4L);
+        given(this.bookService.getBookByIsbn(this.bookDto.getIsbn())).willReturn(this.bookDetailsDto);
+        
+        this.mockMvc
+                .perform(get("/api/book/" + this.bookDto.getIsbn()).header(HttpHeaders.IF_NONE_MATCH,
+                                                                            "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.isbn").value(this.bookDetailsDto.getIsbn()));
+    }
+    
     @Test
     @WithMockUser
     void searchBookByKey() throws Exception {
-        given(this.bookService.searchBooksByKey(any(BookDto.class))).willReturn(this.bookList);
+        given(this.bookService.searchBooksByKey(any(BookDto.class),
+                                                eq(5))).willReturn(new BookSearchResultDto(this.bookList,
+                                                                                           42));
         
         this.mockMvc
                 .perform(post("/api/book/search")
+                                 .param("size",
+                                        "5")
                                  .contentType(MediaType.APPLICATION_JSON)
                                  .content(asJsonString(this.bookDto))
                                  .with(csrf()))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count",
+                                           "42"))
                 .andExpect(jsonPath("$.size()").value(this.bookList.size()));
         
-        verify(this.bookService).searchBooksByKey(any(BookDto.class));
+        verify(this.bookService).searchBooksByKey(any(BookDto.class),
+                                                  eq(5));
+    }
+    
+    @Test
+    @WithMockUser
+    void suggest() throws Exception {
+        given(this.bookService.suggest("new",
+                                       10)).willReturn(List.of("new title"));
+        
+        this.mockMvc
+                .perform(get("/api/book/suggest").param("prefix",
+                                                        "new"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("new title"));
+        
+        verify(this.bookService).suggest("new",
+                                         10);
     }
     
     @Test
@@ -180,11 +317,47 @@ class BookControllerTest
         verify(this.bookService).doesBookExists(this.bookDto.getIsbn());
     }
     
+    @Test
+    @WithMockUser
+    void doBooksExist() throws Exception {
+        given(this.bookService.doBooksExist(Set.of(this.bookDto.getIsbn(),
+                                                   "unknown"))).willReturn(Map.of(this.bookDto.getIsbn(),
+                                                                                  true,
+                                                                                  "unknown",
+                                                                                  false));
+        
+        this.mockMvc
+                .perform(post("/api/book/exists")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(asJsonString(List.of(this.bookDto.getIsbn(),
+                                                               "unknown")))
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['" + this.bookDto.getIsbn() + "']").value(true))
+                .andExpect(jsonPath("$.unknown").value(false));
+    }
+    
+    @Test
+    @WithMockUser
+    void getBooksByIsbns() throws Exception {
+        given(this.bookService.getBooksByIsbns(Set.of(this.bookDto.getIsbn()))).willReturn(Map.of(this.bookDto.getIsbn(),
+                                                                                                  this.bookDetailsDto));
+        
+        this.mockMvc
+                .perform(post("/api/book/batch")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(asJsonString(List.of(this.bookDto.getIsbn())))
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['" + this.bookDto.getIsbn() + "'].title").value(this.bookDetailsDto.getTitle()));
+    }
+    
     @Test
     @WithMockUser(roles = {"MODERATOR", "ADMIN"})
     void updateBook() throws Exception {
         given(this.bookService.updateBook(anyString(),
-                                          any(BookDto.class))).willReturn(this.bookDetailsDto);
+                                          any(BookDto.class),
+                                          any())).willReturn(this.bookDetailsDto);
         
         this.mockMvc
                 .perform(put("/api/book/update/{isbn}",
@@ -196,7 +369,96 @@ class BookControllerTest
                 .andExpect(jsonPath("$.isbn").value(this.bookDetailsDto.getIsbn()));
         
         verify(this.bookService).updateBook(anyString(),
-                                            any(BookDto.class));
+                                            any(BookDto.class),
+                                            isNull());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook() throws Exception {
+        given(this.bookService.patchBook(eq(this.bookDto.getIsbn()),
+                                         any(BookPatchDto.class),
+                                         any())).willReturn(this.bookDetailsDto);
+        
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               this.bookDto.getIsbn())
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"new title\"}")
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.isbn").value(this.bookDetailsDto.getIsbn()));
+        
+        verify(this.bookService).patchBook(eq(this.bookDto.getIsbn()),
+                                           any(BookPatchDto.class),
+                                           isNull());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withIfMatch_shouldRequireTheVersion() throws Exception {
+        given(this.bookService.patchBook(eq(this.bookDto.getIsbn()),
+                                         any(BookPatchDto.class),
+                                         eq(3L))).willThrow(new PreconditionFailedException("Modified",
+                                                                                            null));
+        
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               this.bookDto.getIsbn())
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "\"3\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"new title\"}")
+                                 .with(csrf()))
+                .andExpect(status().isPreconditionFailed());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withoutIfMatch_changedConcurrently_shouldReturnConflict() throws Exception {
+        given(this.bookService.patchBook(eq(this.bookDto.getIsbn()),
+                                         any(BookPatchDto.class),
+                                         isNull())).willThrow(new ConflictException("Modified",
+                                                                                    null));
+        
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               this.bookDto.getIsbn())
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"new title\"}")
+                                 .with(csrf()))
+                .andExpect(status().isConflict());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withWeakIfMatch_shouldReturnBadRequest() throws Exception {
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               this.bookDto.getIsbn())
+                                 .header(HttpHeaders.IF_MATCH,
+                                         "W/\"3\"")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"title\":\"new title\"}")
+                                 .with(csrf()))
+                .andExpect(status().isBadRequest());
+        
+        verify(this.bookService,
+               never()).patchBook(anyString(),
+                                  any(BookPatchDto.class),
+                                  any());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void patchBook_withBlankUrl_shouldReturnBadRequest() throws Exception {
+        this.mockMvc
+                .perform(patch("/api/book/update/{isbn}",
+                               this.bookDto.getIsbn())
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content("{\"url\":\" \"}")
+                                 .with(csrf()))
+                .andExpect(status().isBadRequest());
     }
     
     @Test
@@ -213,6 +475,22 @@ class BookControllerTest
         verify(this.bookService).deleteBook(this.bookDto.getIsbn());
     }
     
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void deleteBooks() throws Exception {
+        given(this.bookService.deleteBooks(Set.of("isbn11",
+                                                  "isbn12"))).willReturn(Set.of("isbn11"));
+        
+        this.mockMvc
+                .perform(post("/api/book/delete/bulk")
+                                 .contentType(MediaType.APPLICATION_JSON)
+                                 .content(asJsonString(List.of("isbn11",
+                                                               "isbn12")))
+                                 .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("isbn11"));
+    }
+    
     @Test
     @WithMockUser(roles = {"MODERATOR"})
     void deleteBook_shouldBeForbiddenForModeratorRole() throws Exception {
@@ -201,7 +201,8 @@ class CategoryControllerTest
     void updateCategory_withModeratorRole_shouldSucceed() throws Exception {
         Long categoryId = 1L;
         given(this.categoryService.updateCategory(eq(categoryId),
-                                                  any(CategoryDto.class))).willReturn(this.category);
+                                                  any(CategoryDto.class),
+                                                  any())).willReturn(this.category);
         
         this.mockMvc
                 .perform(put("/api/category/update/{idCategory}",
@@ -214,7 +215,8 @@ class CategoryControllerTest
                 .andExpect(jsonPath("$.name").value(this.category.getName()));
         
         verify(this.categoryService).updateCategory(eq(categoryId),
-                                                    any(CategoryDto.class));
+                                                    any(CategoryDto.class),
+                                                    isNull());
     }
     
     @Test
@@ -222,7 +224,8 @@ class CategoryControllerTest
     void updateCategory_withAdminRole_shouldSucceed() throws Exception {
         Long categoryId = 1L;
         given(this.categoryService.updateCategory(eq(categoryId),
-                                                  any(CategoryDto.class))).willReturn(this.category);
+                                                  any(CategoryDto.class),
+                                                  any())).willReturn(this.category);
         
         this.mockMvc
                 .perform(put("/api/category/update/{idCategory}",
@@ -233,7 +236,8 @@ class CategoryControllerTest
                 .andExpect(status().isOk());
         
         verify(this.categoryService).updateCategory(eq(categoryId),
-                                                    any(CategoryDto.class));
+                                                    any(CategoryDto.class),
+                                                    isNull());
     }
     
     @Test
@@ -251,7 +255,8 @@ class CategoryControllerTest
         
         verify(this.categoryService,
                never()).updateCategory(anyLong(),
-                                       any(CategoryDto.class));
+                                       any(CategoryDto.class),
+                                       any());
     }
     
     @Test
@@ -259,7 +264,8 @@ class CategoryControllerTest
     void updateCategory_withNonExistingId_shouldReturnNotFound() throws Exception {
         Long nonExistingId = 999L;
         given(this.categoryService.updateCategory(eq(nonExistingId),
-                                                  any(CategoryDto.class))).willThrow(new NotFoundException("Category not found",
+                                                  any(CategoryDto.class),
+                                                  any())).willThrow(new NotFoundException("Category not found",
                                                                                                            null));
         
         this.mockMvc
@@ -271,7 +277,8 @@ class CategoryControllerTest
                 .andExpect(status().isNotFound());
         
         verify(this.categoryService).updateCategory(eq(nonExistingId),
-                                                    any(CategoryDto.class));
+                                                    any(CategoryDto.class),
+                                                    isNull());
     }
     
     // DELETE CATEGORY TESTS
@@ -0,0 +1,64 @@
+package com.eugene.book_service.unit.controller;
+
+import com.eugene.book_service.config.SecurityConfig;
+import com.eugene.book_service.controller.KafkaAdminController;
+import com.eugene.book_service.kafka.DeadLetterReplayer;
+import com.eugene.book_service.kafka.KafkaTopicConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(KafkaAdminController.class)
+@ActiveProfiles("test")
+@Import(SecurityConfig.class)
+class KafkaAdminControllerTest
+{
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @MockitoBean
+    private DeadLetterReplayer deadLetterReplayer;
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void replayDeadLetters_withAdminRole_shouldReturnTheNumberOfEvents() throws Exception {
+        given(this.deadLetterReplayer.replay(KafkaTopicConfig.REVIEW_EVENTS_DLT)).willReturn(3);
+        
+        this.mockMvc
+                .perform(post("/api/admin/kafka/dlt/" + KafkaTopicConfig.REVIEW_EVENTS_DLT + "/replay").with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(content().string("3"));
+    }
+    
+    @Test
+    @WithMockUser(roles = {"ADMIN"})
+    void replayDeadLetters_withUnknownTopic_shouldFail() throws Exception {
+        given(this.deadLetterReplayer.replay("book.events")).willThrow(new IllegalArgumentException("Unknown dead-letter topic book.events"));
+        
+        this.mockMvc
+                .perform(post("/api/admin/kafka/dlt/book.events/replay").with(csrf()))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    @WithMockUser(roles = {"MODERATOR"})
+    void replayDeadLetters_withModeratorRole_shouldBeForbidden() throws Exception {
+        this.mockMvc
+                .perform(post("/api/admin/kafka/dlt/" + KafkaTopicConfig.REVIEW_EVENTS_DLT + "/replay").with(csrf()))
+                .andExpect(status().isForbidden());
+        
+        verifyNoInteractions(this.deadLetterReplayer);
+    }
+}
@@ -1,49 +1,82 @@
 package com.eugene.book_service.unit.kafka;
 
+import com.eugene.book_service.dto.event.BaseDtoEvent;
 import com.eugene.book_service.dto.event.ReviewDtoEvent;
 import com.eugene.book_service.dto.event.UserDtoEvent;
 import com.eugene.book_service.kafka.BookEventConsumer;
+import com.eugene.book_service.kafka.FailedEventRecoverer;
 import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.KeyedLaneExecutor;
+import com.eugene.book_service.kafka.ProcessedEventStore;
+import com.eugene.book_service.kafka.serde.EventSerde;
 import com.eugene.book_service.model.Book;
+import com.eugene.book_service.model.ReviewIdSet;
 import com.eugene.book_service.repository.BookRepository;
+import com.eugene.book_service.repository.BookReviewsRepository;
+import com.eugene.book_service.service.BookReviewsChangedEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.times;
-import static org.mockito.Mockito.verify;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 @ActiveProfiles("test")
 class BookEventConsumerTest
 {
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final Set<Long> reviewIdsToDelete;
+    private final ReviewIdSet reviewIdsToDelete;
     private final Set<Long> reviewIdsAfterDelete;
     private final Book book1;
-    private final Book book2;
+    private long offset;
     
     @Mock
     private BookRepository bookRepository;
-    @InjectMocks
+    @Mock
+    private BookReviewsRepository bookReviewsRepository;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private ProcessedEventStore processedEventStore;
+    @Mock
+    private FailedEventRecoverer failedEventRecoverer;
     private BookEventConsumer bookEventConsumer;
     
     public BookEventConsumerTest() {
         Set<Long> reviewIds = Set.of(1L,
                                      2L,
                                      3L);
-        this.reviewIdsToDelete = Set.of(3L);
+        this.reviewIdsToDelete = ReviewIdSet.of(3L);
         this.reviewIdsAfterDelete = Set.of(1L,
                                            2L);
         
@@ -52,13 +85,31 @@ class BookEventConsumerTest
                               "description1",
                               "author1",
                               "url1");
-        this.book1.setReviewsIds(reviewIds);
-        this.book2 = new Book("isbn2",
-                              "title2",
-                              "description2",
-                              "author2",
-                              "url2");
-        this.book2.setReviewsIds(this.reviewIdsAfterDelete);
+        this.book1.setReviewsIds(new HashSet<>(reviewIds));
+    }
+    
+    @BeforeEach
+    void initConsumer() {
+        this.bookEventConsumer = new BookEventConsumer(new EventSerde("json"),
+                                                       this.bookRepository,
+                                                       this.bookReviewsRepository,
+                                                       this.eventPublisher,
+                                                       new TransactionTemplate(this.transactionManager),
+                                                       new KeyedLaneExecutor(2),
+                                                       this.processedEventStore,
+                                                       this.failedEventRecoverer);
+    }
+    
+    /**
+     * The record has no format header, as the ones of the producers sending JSON, and its own
+     * offset.
+     */
+    private ConsumerRecord<String, byte[]> record(BaseDtoEvent event) throws JsonProcessingException {
+        return new ConsumerRecord<>("events",
+                                    0,
+                                    this.offset++,
+                                    null,
+                                    this.objectMapper.writeValueAsBytes(event));
     }
     
     @Test
@@ -66,17 +117,33 @@ class BookEventConsumerTest
         
         UserDtoEvent userDtoEvent = new UserDtoEvent(KafkaEventType.USER_DELETED,
                                                      this.reviewIdsToDelete);
-        String json = this.objectMapper.writeValueAsString(userDtoEvent);
+        ConsumerRecord<String, byte[]> record = record(userDtoEvent);
         
-        given(this.bookRepository.findAll()).willReturn(List.of(this.book1,
-                                                                this.book2));
-        this.bookEventConsumer.handleUserEvents(json);
+        given(this.bookRepository.findIsbnsByReviewsIds(this.reviewIdsToDelete.asList())).willReturn(Set.of(this.book1.getIsbn()));
+        this.bookEventConsumer.handleUserEvents(record);
         
-        this.book1.setReviewsIds(this.reviewIdsAfterDelete);
+        verify(this.bookRepository).deleteReviewsByIds(this.reviewIdsToDelete.asList());
         verify(this.bookRepository,
-               times(1)).save(this.book1);
+               never()).findAll();
+        verify(this.eventPublisher).publishEvent(new BookReviewsChangedEvent(Set.of(this.book1.getIsbn())));
+    }
+    
+    @Test
+    void handleUserEvent_userDeleted_shouldBindTheReviewIdsByChunks() throws JsonProcessingException {
+        ReviewIdSet.Builder reviewsIds = ReviewIdSet.builder(1_200);
+        for (long id = 1; id <= 1_200; id++) {
+            reviewsIds.add(id);
+        }
+        given(this.bookRepository.findIsbnsByReviewsIds(anyList())).willReturn(Set.of(this.book1.getIsbn()));
+        
+        this.bookEventConsumer.handleUserEvents(record(new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                                                        reviewsIds.build())));
+        
+        verify(this.bookRepository,
+               times(3)).findIsbnsByReviewsIds(argThat(ids -> ids.size() <= 500));
         verify(this.bookRepository,
-               times(1)).save(this.book2);
+               times(3)).deleteReviewsByIds(argThat(ids -> ids.size() <= 500));
+        verify(this.bookRepository).incrementVersions(List.of(this.book1.getIsbn()));
     }
     
     @Test
@@ -85,16 +152,47 @@ class BookEventConsumerTest
         ReviewDtoEvent reviewDtoEvent = new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
                                                            "user1",
                                                            "isbn1",
-                                                           this.reviewIdsToDelete);
-        String json = this.objectMapper.writeValueAsString(reviewDtoEvent);
+                                                           ReviewIdSet.of(4L));
+        ConsumerRecord<String, byte[]> record = record(reviewDtoEvent);
         
-        given(this.bookRepository.findById(reviewDtoEvent.getIsbn())).willReturn(Optional.of(this.book1));
+        given(this.bookReviewsRepository.addReviewsIds(Map.of("isbn1",
+                                                               ReviewIdSet.of(4L)))).willReturn(Set.of(this.book1.getIsbn()));
         
-        this.bookEventConsumer.handleReviewsEvents(json);
+        this.bookEventConsumer.handleReviewsEvents(List.of(record));
         
-        this.book1.setReviewsIds(this.reviewIdsAfterDelete);
+        // Only the new row is inserted, neither the book nor its review IDs are loaded
+        verify(this.bookRepository,
+               never()).findById(anyString());
         verify(this.bookRepository,
-               times(1)).save(this.book1);
+               never()).findAllById(any());
+        verify(this.eventPublisher).publishEvent(new BookReviewsChangedEvent(Set.of(this.book1.getIsbn())));
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldApplyTheNetChangesOfTheBatch() throws JsonProcessingException {
+        
+        ConsumerRecord<String, byte[]> created = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                           "user1",
+                                                                           "isbn1",
+                                                                           ReviewIdSet.of(4L,
+                                                                                        5L)));
+        ConsumerRecord<String, byte[]> deleted = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                                           "user1",
+                                                                           "isbn1",
+                                                                           ReviewIdSet.of(3L,
+                                                                                        4L)));
+        
+        given(this.bookRepository.findIsbnsByReviewsIds(List.of(3L,
+                                                                4L))).willReturn(Set.of(this.book1.getIsbn()));
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(created,
+                                                           deleted));
+        
+        // The review 4 is created then deleted in the batch, it is never added
+        verify(this.bookRepository).deleteReviewsByIds(List.of(3L,
+                                                               4L));
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(5L)));
     }
     
     @Test
@@ -104,18 +202,266 @@ class BookEventConsumerTest
                                                            "user1",
                                                            "isbn1",
                                                            this.reviewIdsToDelete);
-        String json = this.objectMapper.writeValueAsString(reviewDtoEvent);
+        ConsumerRecord<String, byte[]> record = record(reviewDtoEvent);
         
-        given(this.bookRepository.findAll()).willReturn(List.of(this.book1,
-                                                                this.book2));
+        given(this.bookRepository.findIsbnsByReviewsIds(this.reviewIdsToDelete.asList())).willReturn(Set.of(this.book1.getIsbn()));
         
-        this.bookEventConsumer.handleReviewsEvents(json);
+        this.bookEventConsumer.handleReviewsEvents(List.of(record));
         
-        this.book1.setReviewsIds(this.reviewIdsAfterDelete);
+        verify(this.bookRepository).deleteReviewsByIds(this.reviewIdsToDelete.asList());
         verify(this.bookRepository,
-               times(1)).save(this.book1);
+               never()).save(any(Book.class));
+        verify(this.eventPublisher).publishEvent(new BookReviewsChangedEvent(Set.of(this.book1.getIsbn())));
+    }
+    
+    @Test
+    void handleReviewsEvent_reviewDeleted_shouldNotDeleteUnknownReviews() throws JsonProcessingException {
+        
+        ReviewDtoEvent reviewDtoEvent = new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                           "user1",
+                                                           "isbn1",
+                                                           ReviewIdSet.of(42L));
+        ConsumerRecord<String, byte[]> record = record(reviewDtoEvent);
+        
+        given(this.bookRepository.findIsbnsByReviewsIds(List.of(42L))).willReturn(Set.of());
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(record));
+        
         verify(this.bookRepository,
-               times(1)).save(this.book2);
-        assertThat(this.book1.getReviewsIds()).isEqualTo(this.reviewIdsAfterDelete);
+               never()).deleteReviewsByIds(anyList());
+        verifyNoInteractions(this.eventPublisher);
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldProcessTheBooksOfABatchOnTheirLanes() throws JsonProcessingException {
+        ConsumerRecord<String, byte[]> created1 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn1",
+                                                                            ReviewIdSet.of(4L)));
+        ConsumerRecord<String, byte[]> created2 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn2",
+                                                                            ReviewIdSet.of(5L)));
+        Map<String, ReviewIdSet> added = new ConcurrentHashMap<>();
+        given(this.bookReviewsRepository.addReviewsIds(anyMap())).willAnswer(invocation -> {
+            Map<String, ReviewIdSet> reviewsIdsByIsbn = invocation.getArgument(0);
+            added.putAll(reviewsIdsByIsbn);
+            return new HashSet<>(reviewsIdsByIsbn.keySet());
+        });
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(created1,
+                                                           created2));
+        
+        assertThat(added).containsExactlyInAnyOrderEntriesOf(Map.of("isbn1",
+                                                                    ReviewIdSet.of(4L),
+                                                                    "isbn2",
+                                                                    ReviewIdSet.of(5L)));
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldSkipTheProcessedEvents() throws JsonProcessingException {
+        ReviewDtoEvent processed = new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                      "user1",
+                                                      "isbn1",
+                                                      ReviewIdSet.of(4L));
+        processed.setEventId("event1");
+        ReviewDtoEvent redelivered = new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                        "user1",
+                                                        "isbn1",
+                                                        ReviewIdSet.of(5L));
+        redelivered.setEventId("event2");
+        given(this.processedEventStore.findProcessed(List.of("event1",
+                                                             "event2",
+                                                             "event2"))).willReturn(Set.of("event1"));
+        
+        // The event 2 is delivered twice in the batch, it is applied once
+        this.bookEventConsumer.handleReviewsEvents(List.of(record(processed),
+                                                           record(redelivered),
+                                                           record(redelivered)));
+        
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(5L)));
+        verify(this.processedEventStore).markProcessed(Set.of("event2"));
+    }
+    
+    @Test
+    void handleUserEvents_shouldSkipAProcessedEvent() throws JsonProcessingException {
+        UserDtoEvent userDtoEvent = new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                                     this.reviewIdsToDelete);
+        // Without event ID, the event is identified by its record
+        given(this.processedEventStore.findProcessed(List.of("events-0@0"))).willReturn(Set.of("events-0@0"));
+        
+        this.bookEventConsumer.handleUserEvents(record(userDtoEvent));
+        
+        verifyNoInteractions(this.bookRepository);
+        verify(this.processedEventStore,
+               never()).markProcessed(any());
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldMoveAsideTheRecordsWhichCantBeDecoded() throws JsonProcessingException {
+        ConsumerRecord<String, byte[]> poison = new ConsumerRecord<>("events",
+                                                                     0,
+                                                                     this.offset++,
+                                                                     "isbn1",
+                                                                     "{not json".getBytes());
+        ConsumerRecord<String, byte[]> created = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                           "user1",
+                                                                           "isbn1",
+                                                                           ReviewIdSet.of(4L)));
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(poison,
+                                                           created));
+        
+        verify(this.failedEventRecoverer).recover(eq(poison),
+                                                  any(RuntimeException.class));
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(4L)));
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldMoveAsideTheRecordsOfAFailedBook() throws JsonProcessingException {
+        ConsumerRecord<String, byte[]> created1 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn1",
+                                                                            ReviewIdSet.of(4L)));
+        ConsumerRecord<String, byte[]> created2 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn2",
+                                                                            ReviewIdSet.of(5L)));
+        // A single stubbing for both books, which run on their lanes in any order
+        given(this.bookReviewsRepository.addReviewsIds(anyMap())).willAnswer(invocation -> {
+            Map<String, ReviewIdSet> reviewsIdsByIsbn = invocation.getArgument(0);
+            if (reviewsIdsByIsbn.containsKey("isbn2")) {
+                throw new IllegalStateException("database down");
+            }
+            return new HashSet<>(reviewsIdsByIsbn.keySet());
+        });
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(created1,
+                                                           created2));
+        
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(4L)));
+        verify(this.failedEventRecoverer).recover(eq(created2),
+                                                  any(IllegalStateException.class));
+        verify(this.failedEventRecoverer,
+               never()).recover(eq(created1),
+                                any());
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldCommitTheOtherBooksOfTheLaneOfAFailedBook() throws JsonProcessingException {
+        // A single lane for both books
+        BookEventConsumer bookEventConsumer = new BookEventConsumer(new EventSerde("json"),
+                                                                    this.bookRepository,
+                                                                    this.bookReviewsRepository,
+                                                                    this.eventPublisher,
+                                                                    new TransactionTemplate(this.transactionManager),
+                                                                    new KeyedLaneExecutor(1),
+                                                                    this.processedEventStore,
+                                                                    this.failedEventRecoverer);
+        ConsumerRecord<String, byte[]> failed = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                          "user1",
+                                                                          "isbn2",
+                                                                          ReviewIdSet.of(5L)));
+        ConsumerRecord<String, byte[]> created = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                           "user1",
+                                                                           "isbn1",
+                                                                           ReviewIdSet.of(4L)));
+        ConsumerRecord<String, byte[]> deletedAfterFailure = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                                                       "user1",
+                                                                                       "isbn2",
+                                                                                       ReviewIdSet.of(5L)));
+        // The review of the book 2 is created then deleted, only the deletion is applied
+        given(this.bookRepository.findIsbnsByReviewsIds(anyList())).willThrow(new IllegalStateException("database down"));
+        
+        bookEventConsumer.handleReviewsEvents(List.of(failed,
+                                                      created,
+                                                      deletedAfterFailure));
+        
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(4L)));
+        // The later event of the failed book follows it to the retry topic
+        InOrder inOrder = inOrder(this.failedEventRecoverer);
+        inOrder
+                .verify(this.failedEventRecoverer)
+                .recover(eq(failed),
+                         any(IllegalStateException.class));
+        inOrder
+                .verify(this.failedEventRecoverer)
+                .recover(eq(deletedAfterFailure),
+                         any(IllegalStateException.class));
+        verify(this.failedEventRecoverer,
+               never()).recover(eq(created),
+                                any());
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldApplyTheDeletionsWithoutIsbnAfterTheLanes() throws JsonProcessingException {
+        ConsumerRecord<String, byte[]> created = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                           "user1",
+                                                                           "isbn1",
+                                                                           ReviewIdSet.of(4L)));
+        ConsumerRecord<String, byte[]> deleted = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                                           "user1",
+                                                                           null,
+                                                                           ReviewIdSet.of(4L)));
+        given(this.bookReviewsRepository.addReviewsIds(Map.of("isbn1",
+                                                               ReviewIdSet.of(4L)))).willReturn(Set.of("isbn1"));
+        given(this.bookRepository.findIsbnsByReviewsIds(List.of(4L))).willReturn(Set.of("isbn1"));
+        
+        this.bookEventConsumer.handleReviewsEvents(List.of(created,
+                                                           deleted));
+        
+        // The review is deleted after its creation, whatever the lane of the book
+        InOrder inOrder = inOrder(this.bookReviewsRepository,
+                                  this.bookRepository);
+        inOrder
+                .verify(this.bookReviewsRepository)
+                .addReviewsIds(Map.of("isbn1",
+                                      ReviewIdSet.of(4L)));
+        inOrder
+                .verify(this.bookRepository)
+                .deleteReviewsByIds(List.of(4L));
+    }
+    
+    @Test
+    void handleReviewsEvents_shouldFailOnTheFirstRecordWhichCantBeMovedAside() throws JsonProcessingException {
+        ConsumerRecord<String, byte[]> created1 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn1",
+                                                                            ReviewIdSet.of(4L)));
+        ConsumerRecord<String, byte[]> created2 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                                            "user1",
+                                                                            "isbn2",
+                                                                            ReviewIdSet.of(5L)));
+        ConsumerRecord<String, byte[]> deleted2 = record(new ReviewDtoEvent(KafkaEventType.REVIEWS_DELETED,
+                                                                            "user1",
+                                                                            "isbn2",
+                                                                            ReviewIdSet.of(5L)));
+        given(this.bookReviewsRepository.addReviewsIds(anyMap())).willAnswer(invocation -> {
+            Map<String, ReviewIdSet> reviewsIdsByIsbn = invocation.getArgument(0);
+            return new HashSet<>(reviewsIdsByIsbn.keySet());
+        });
+        given(this.bookRepository.findIsbnsByReviewsIds(anyList())).willThrow(new IllegalStateException("database down"));
+        // The send to the retry topic fails too
+        willThrow(new KafkaException("broker down"))
+                .given(this.failedEventRecoverer)
+                .recover(eq(created2),
+                         any());
+        
+        assertThatThrownBy(() -> this.bookEventConsumer.handleReviewsEvents(List.of(created1,
+                                                                                    created2,
+                                                                                    deleted2)))
+                .isInstanceOfSatisfying(BatchListenerFailedException.class,
+                                        e -> assertThat(e.getRecord()).isSameAs(created2));
+        
+        // The book 1 is committed, the later record of the book 2 is left behind the failed one
+        verify(this.bookReviewsRepository).addReviewsIds(Map.of("isbn1",
+                                                                ReviewIdSet.of(4L)));
+        verify(this.failedEventRecoverer,
+               never()).recover(eq(deleted2),
+                                any());
     }
-}
\ No newline at end of file
+}
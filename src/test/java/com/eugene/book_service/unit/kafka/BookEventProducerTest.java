@@ -3,18 +3,19 @@ package com.eugene.book_service.unit.kafka;
 import com.eugene.book_service.dto.event.BookDtoEvent;
 import com.eugene.book_service.kafka.BookEventProducer;
 import com.eugene.book_service.kafka.KafkaEventType;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.model.OutboxEvent;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.eugene.book_service.repository.OutboxEventRepository;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
-import java.util.Set;
-
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -22,21 +23,30 @@ import static org.mockito.Mockito.verify;
 @ActiveProfiles("test")
 class BookEventProducerTest
 {
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EventSerde eventSerde = new EventSerde("binary");
     @Mock
-    private KafkaTemplate<String, String> kafkaTemplate;
-    @InjectMocks
+    private OutboxEventRepository outboxEventRepository;
     private BookEventProducer bookEventProducer;
 
+    @BeforeEach
+    void initProducer() {
+        this.bookEventProducer = new BookEventProducer(this.outboxEventRepository, this.eventSerde);
+    }
+
     @Test
-    void sendBookDeletedEvent() throws JsonProcessingException {
+    void sendBookDeletedEvent() {
 
-        Set<Long> reviewsIds = Set.of(1L, 2L);
-        String json = this.objectMapper.writeValueAsString(
-                new BookDtoEvent(KafkaEventType.BOOK_DELETED, reviewsIds));
+        ReviewIdSet reviewsIds = ReviewIdSet.of(1L, 2L);
 
-        this.bookEventProducer.sendBookDeletedEvent(reviewsIds);
+        this.bookEventProducer.sendBookDeletedEvent("isbn1", reviewsIds);
 
-        verify(this.kafkaTemplate, times(1)).send("book.events", json);
+        ArgumentCaptor<OutboxEvent> event = ArgumentCaptor.forClass(OutboxEvent.class);
+        verify(this.outboxEventRepository, times(1)).save(event.capture());
+        assertThat(event.getValue().getTopic()).isEqualTo("book.events");
+        assertThat(event.getValue().getKey()).isEqualTo("isbn1");
+        assertThat(event.getValue().getFormat()).isEqualTo("binary");
+        BookDtoEvent bookDtoEvent = this.eventSerde.decode(event.getValue().getPayload(), "binary", BookDtoEvent.class);
+        assertThat(bookDtoEvent.getEventType()).isEqualTo(KafkaEventType.BOOK_DELETED);
+        assertThat(bookDtoEvent.getReviewsIds()).isEqualTo(reviewsIds);
     }
 }
@@ -0,0 +1,85 @@
+package com.eugene.book_service.unit.kafka;
+
+import com.eugene.book_service.dto.event.UserDtoEvent;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.serde.BinaryEventCodec;
+import com.eugene.book_service.kafka.serde.EventCodec;
+import com.eugene.book_service.kafka.serde.JsonEventCodec;
+import com.eugene.book_service.model.ReviewIdSet;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the size and the encode/decode time of a USER_DELETED event with thousands of review
+ * IDs in JSON and in binary. The times are logged, only the sizes are asserted: they don't depend
+ * on the machine.
+ */
+@ActiveProfiles("test")
+class EventCodecBenchmarkTest
+{
+    private static final int REVIEWS = 5_000;
+    private static final int WARMUP = 1_000;
+    private static final int ITERATIONS = 1_000;
+    
+    private final Logger log = LoggerFactory.getLogger(EventCodecBenchmarkTest.class);
+    
+    private static UserDtoEvent userDeletedEvent() {
+        // IDs of a user spread over a large table of reviews
+        Random random = new Random(42);
+        ReviewIdSet.Builder reviewsIds = ReviewIdSet.builder(REVIEWS);
+        long id = 10_000_000;
+        for (int i = 0; i < REVIEWS; i++) {
+            id += 1 + random.nextInt(2_000);
+            reviewsIds.add(id);
+        }
+        return new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                reviewsIds.build());
+    }
+    
+    private long[] measure(
+            EventCodec codec,
+            UserDtoEvent event
+    ) {
+        byte[] payload = codec.encode(event);
+        for (int i = 0; i < WARMUP; i++) {
+            codec.decode(codec.encode(event),
+                         UserDtoEvent.class);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.encode(event);
+        }
+        long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(payload,
+                         UserDtoEvent.class);
+        }
+        long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        this.log.info("{}: {} bytes, encoded in {} us, decoded in {} us",
+                      codec.format(),
+                      payload.length,
+                      encodeNanos / 1_000,
+                      decodeNanos / 1_000);
+        return new long[]{payload.length, encodeNanos, decodeNanos};
+    }
+    
+    @Test
+    void binary_shouldBeSmallerThanJson() {
+        UserDtoEvent event = userDeletedEvent();
+        
+        long[] json = measure(new JsonEventCodec(),
+                              event);
+        long[] binary = measure(new BinaryEventCodec(),
+                                event);
+        
+        // About 2 bytes per ID against 9 in JSON
+        assertThat(binary[0] * 3).isLessThan(json[0]);
+    }
+}
@@ -0,0 +1,149 @@
+package com.eugene.book_service.unit.kafka;
+
+import com.eugene.book_service.dto.event.BookDtoEvent;
+import com.eugene.book_service.dto.event.ReviewDtoEvent;
+import com.eugene.book_service.dto.event.UserDtoEvent;
+import com.eugene.book_service.exception.EventDecodingException;
+import com.eugene.book_service.exception.JsonException;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.serde.BinaryEventCodec;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ActiveProfiles("test")
+class EventSerdeTest
+{
+    private final EventSerde jsonSerde = new EventSerde("json");
+    private final EventSerde binarySerde = new EventSerde("binary");
+    
+    private ConsumerRecord<String, byte[]> record(
+            byte[] payload,
+            String format
+    ) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("events",
+                                                                     0,
+                                                                     0L,
+                                                                     "isbn1",
+                                                                     payload);
+        if (format != null) {
+            record
+                    .headers()
+                    .add(EventSerde.FORMAT_HEADER,
+                         format.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+    
+    @Test
+    void decode_shouldReadTheFormatOfTheHeader() {
+        ReviewDtoEvent event = new ReviewDtoEvent(KafkaEventType.REVIEWS_CREATED,
+                                                  "user1",
+                                                  "isbn1",
+                                                  ReviewIdSet.of(-3L,
+                                                                 7L,
+                                                                 1_000_000_000_000L));
+        event.setEventId("event1");
+        event.setTimestamp(1_700_000_000_000L);
+        
+        for (EventSerde writer : new EventSerde[]{this.jsonSerde, this.binarySerde}) {
+            byte[] payload = writer.encode(event);
+            ReviewDtoEvent decoded = this.jsonSerde.decode(record(payload,
+                                                                  writer
+                                                                          .writeFormat()
+                                                                          .getHeaderValue()),
+                                                           ReviewDtoEvent.class);
+            
+            assertThat(decoded.getEventType()).isEqualTo(KafkaEventType.REVIEWS_CREATED);
+            assertThat(decoded.getUserId()).isEqualTo("user1");
+            assertThat(decoded.getIsbn()).isEqualTo("isbn1");
+            assertThat(decoded.getReviewsIds()).isEqualTo(event.getReviewsIds());
+            assertThat(decoded.getEventId()).isEqualTo("event1");
+            assertThat(decoded.getTimestamp()).isEqualTo(1_700_000_000_000L);
+        }
+    }
+    
+    @Test
+    void decode_shouldReadTheRecordsWithoutHeaderAsJson() throws Exception {
+        UserDtoEvent event = new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                              ReviewIdSet.of(1L,
+                                                             2L));
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = objectMapper.writeValueAsString(event);
+        
+        // Plain JSON, and JSON string wrapping the JSON as sent by the former JsonSerializer
+        for (String payload : new String[]{json, objectMapper.writeValueAsString(json)}) {
+            UserDtoEvent decoded = this.binarySerde.decode(record(payload.getBytes(StandardCharsets.UTF_8),
+                                                                  null),
+                                                           UserDtoEvent.class);
+            
+            assertThat(decoded.getEventType()).isEqualTo(KafkaEventType.USER_DELETED);
+            assertThat(decoded.getReviewsIds()).isEqualTo(ReviewIdSet.of(1L,
+                                                                         2L));
+        }
+    }
+    
+    @Test
+    void binary_shouldKeepTheNullValues() {
+        BookDtoEvent decoded = this.binarySerde.decode(this.binarySerde.encode(new BookDtoEvent(null,
+                                                                                                null)),
+                                                       "binary",
+                                                       BookDtoEvent.class);
+        
+        assertThat(decoded.getEventType()).isNull();
+        assertThat(decoded.getReviewsIds()).isNull();
+    }
+    
+    @Test
+    void binary_shouldReadTheFirstVersion() {
+        // Version 1, user event USER_DELETED with the review IDs 3 and 5
+        byte[] payload = {1, 3, 1, 3, 6, 2};
+        
+        UserDtoEvent decoded = this.binarySerde.decode(payload,
+                                                       "binary",
+                                                       UserDtoEvent.class);
+        
+        assertThat(decoded.getEventType()).isEqualTo(KafkaEventType.USER_DELETED);
+        assertThat(decoded.getEventId()).isNull();
+        assertThat(decoded.getReviewsIds()).isEqualTo(ReviewIdSet.of(3L,
+                                                                     5L));
+    }
+    
+    @Test
+    void binary_shouldEncodeCloseReviewIdsInAFewBytes() {
+        ReviewIdSet.Builder reviewsIds = ReviewIdSet.builder(1_000);
+        for (long id = 100_000; id < 101_000; id++) {
+            reviewsIds.add(id);
+        }
+        
+        byte[] payload = new BinaryEventCodec().encode(new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                                                        reviewsIds.build()));
+        
+        // Header, count, first ID, then one byte per gap
+        assertThat(payload.length).isLessThan(1_010);
+    }
+    
+    @Test
+    void decode_shouldRejectMalformedPayloads() {
+        byte[] payload = this.binarySerde.encode(new UserDtoEvent(KafkaEventType.USER_DELETED,
+                                                                  ReviewIdSet.of(1L,
+                                                                                 2L)));
+        
+        assertThatThrownBy(() -> this.binarySerde.decode(Arrays.copyOf(payload,
+                                                                       payload.length - 1),
+                                                         "binary",
+                                                         UserDtoEvent.class)).isInstanceOf(EventDecodingException.class);
+        assertThatThrownBy(() -> this.jsonSerde.decode(payload,
+                                                       "json",
+                                                       UserDtoEvent.class)).isInstanceOf(JsonException.class);
+    }
+}
@@ -0,0 +1,137 @@
+package com.eugene.book_service.unit.kafka;
+
+import com.eugene.book_service.dto.event.BookDtoEvent;
+import com.eugene.book_service.kafka.KafkaEventSender;
+import com.eugene.book_service.kafka.KafkaEventType;
+import com.eugene.book_service.kafka.serde.EventSerde;
+import com.eugene.book_service.kafka.serde.JsonEventCodec;
+import com.eugene.book_service.model.ReviewIdSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+class KafkaEventSenderTest
+{
+    private static final byte[] PAYLOAD = {1, 2, 3};
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    
+    @Mock
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    private KafkaEventSender kafkaEventSender;
+    
+    @BeforeEach
+    void initSender() {
+        this.kafkaEventSender = new KafkaEventSender(this.kafkaTemplate,
+                                                     this.meterRegistry,
+                                                     2);
+    }
+    
+    private double inFlight() {
+        return this.meterRegistry
+                .get("book.kafka.send.in.flight")
+                .gauge()
+                .value();
+    }
+    
+    @Test
+    void send_shouldCountTheRecordsInFlightUntilAcknowledged() throws InterruptedException {
+        CompletableFuture<SendResult<String, byte[]>> broker = new CompletableFuture<>();
+        given(this.kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, byte[]>>any())).willReturn(broker);
+        
+        CompletableFuture<SendResult<String, byte[]>> future = this.kafkaEventSender.send("book.events",
+                                                                                          "isbn1",
+                                                                                          PAYLOAD,
+                                                                                          "binary");
+        assertThat(inFlight()).isEqualTo(1);
+        ArgumentCaptor<ProducerRecord<String, byte[]>> record = ArgumentCaptor.captor();
+        verify(this.kafkaTemplate).send(record.capture());
+        assertThat(record.getValue().key()).isEqualTo("isbn1");
+        assertThat(record.getValue().value()).isEqualTo(PAYLOAD);
+        assertThat(record
+                           .getValue()
+                           .headers()
+                           .lastHeader(EventSerde.FORMAT_HEADER)
+                           .value()).isEqualTo("binary".getBytes(StandardCharsets.UTF_8));
+        
+        broker.complete(null);
+        assertThat(future).isCompleted();
+        assertThat(inFlight()).isZero();
+        assertThat(this.meterRegistry
+                           .get("book.kafka.send")
+                           .tag("topic",
+                                "book.events")
+                           .tag("outcome",
+                                "success")
+                           .timer()
+                           .count()).isEqualTo(1);
+    }
+    
+    @Test
+    void send_shouldWriteTheJsonEventsAsTheJsonSerializer() throws Exception {
+        BookDtoEvent event = new BookDtoEvent(KafkaEventType.BOOK_DELETED,
+                                              ReviewIdSet.of(1L,
+                                                             2L));
+        given(this.kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, byte[]>>any())).willReturn(new CompletableFuture<>());
+        
+        this.kafkaEventSender.send("book.events",
+                                   "isbn1",
+                                   new JsonEventCodec().encode(event),
+                                   "json");
+        
+        RecordHeaders legacyHeaders = new RecordHeaders();
+        byte[] legacyValue;
+        try (JsonSerializer<String> serializer = new JsonSerializer<>()) {
+            legacyValue = serializer.serialize("book.events",
+                                               legacyHeaders,
+                                               new ObjectMapper().writeValueAsString(event));
+        }
+        ArgumentCaptor<ProducerRecord<String, byte[]>> record = ArgumentCaptor.captor();
+        verify(this.kafkaTemplate).send(record.capture());
+        assertThat(record.getValue().value()).isEqualTo(legacyValue);
+        assertThat(record
+                           .getValue()
+                           .headers()
+                           .toArray()).isEqualTo(legacyHeaders.toArray());
+    }
+    
+    @Test
+    void send_shouldCountTheFailures() throws InterruptedException {
+        given(this.kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, byte[]>>any())).willReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        
+        CompletableFuture<SendResult<String, byte[]>> future = this.kafkaEventSender.send("book.events",
+                                                                                          "isbn1",
+                                                                                          PAYLOAD,
+                                                                                          "json");
+        
+        assertThat(future).isCompletedExceptionally();
+        assertThat(inFlight()).isZero();
+        assertThat(this.meterRegistry
+                           .get("book.kafka.send.failures")
+                           .tag("topic",
+                                "book.events")
+                           .counter()
+                           .count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,78 @@
+package com.eugene.book_service.unit.model;
+
+import com.eugene.book_service.model.ReviewIdSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReviewIdSetTest
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Test
+    void of_shouldSortAndRemoveTheDuplicates() {
+        ReviewIdSet ids = ReviewIdSet.of(5L,
+                                         -2L,
+                                         5L,
+                                         3L);
+        
+        assertThat(ids.toArray()).containsExactly(-2L,
+                                                  3L,
+                                                  5L);
+        assertThat(ids.contains(3L)).isTrue();
+        assertThat(ids.contains(4L)).isFalse();
+        assertThat(ids.asList()).isEqualTo(List.of(-2L,
+                                                   3L,
+                                                   5L));
+        assertThat(ids).isEqualTo(ReviewIdSet.copyOf(Set.of(3L,
+                                                            5L,
+                                                            -2L)));
+    }
+    
+    @Test
+    void builder_shouldGrowPastTheExpectedSize() {
+        ReviewIdSet.Builder builder = ReviewIdSet.builder(1);
+        for (long id = 10_000; id > 0; id--) {
+            builder.add(id);
+        }
+        
+        ReviewIdSet ids = builder.build();
+        
+        assertThat(ids.size()).isEqualTo(10_000);
+        assertThat(ids.get(0)).isEqualTo(1L);
+        assertThat(ids.get(9_999)).isEqualTo(10_000L);
+    }
+    
+    @Test
+    void split_shouldKeepTheOrder() {
+        ReviewIdSet ids = ReviewIdSet.of(5L,
+                                         1L,
+                                         4L,
+                                         2L,
+                                         3L);
+        
+        assertThat(ids.split(2)).containsExactly(ReviewIdSet.of(1L,
+                                                                2L),
+                                                 ReviewIdSet.of(3L,
+                                                                4L),
+                                                 ReviewIdSet.of(5L));
+        assertThat(ReviewIdSet
+                           .empty()
+                           .split(2)).isEmpty();
+    }
+    
+    @Test
+    void json_shouldBeAPlainArray() throws Exception {
+        String json = this.objectMapper.writeValueAsString(ReviewIdSet.of(2L,
+                                                                          1L));
+        
+        assertThat(json).isEqualTo("[1,2]");
+        assertThat(this.objectMapper.readValue("[3,1,3]",
+                                               ReviewIdSet.class)).isEqualTo(ReviewIdSet.of(1L,
+                                                                                            3L));
+    }
+}
@@ -0,0 +1,218 @@
+package com.eugene.book_service.unit.search;
+
+import com.eugene.book_service.dto.BookDto;
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.search.BookSearchIndex;
+import com.eugene.book_service.search.BookSearchResult;
+import com.eugene.book_service.service.BookChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+class BookSearchIndexTest
+{
+    private final BookSummaryDto dune = new BookSummaryDto("978-0441013593",
+                                                           "Dune",
+                                                           "description",
+                                                           "Frank Herbert",
+                                                           "url1",
+                                                           0L);
+    private final BookSummaryDto miserables = new BookSummaryDto("978-0140444308",
+                                                                 "Les Misérables",
+                                                                 "description",
+                                                                 "Victor Hugo",
+                                                                 "url2",
+                                                                 0L);
+    
+    @Mock
+    private BookReadRepository bookReadRepository;
+    @InjectMocks
+    private BookSearchIndex bookSearchIndex;
+    
+    private List<String> search(BookDto filter) {
+        return this.bookSearchIndex
+                .search(filter,
+                        10)
+                .isbns();
+    }
+    
+    private static BookDto filter(
+            String isbn,
+            String title,
+            String author
+    ) {
+        return new BookDto(isbn,
+                           title,
+                           null,
+                           author,
+                           null,
+                           null);
+    }
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void buildIndex() {
+        doAnswer(invocation -> {
+            Consumer<BookSummaryDto> consumer = invocation.getArgument(0);
+            consumer.accept(this.dune);
+            consumer.accept(this.miserables);
+            return null;
+        })
+                .when(this.bookReadRepository)
+                .streamAllSummaries(any(Consumer.class));
+        
+        this.bookSearchIndex.rebuild();
+    }
+    
+    @Test
+    void rebuild_shouldMakeTheIndexReady() {
+        assertThat(this.bookSearchIndex.isReady()).isTrue();
+    }
+    
+    @Test
+    void search_shouldIgnoreCaseAndAccents() {
+        assertThat(search(filter(null,
+                                 "MISERABLE",
+                                 null))).containsExactly(this.miserables.getIsbn());
+    }
+    
+    @Test
+    void search_shouldMatchAnyOfTheFields() {
+        assertThat(search(filter("0441",
+                                 null,
+                                 "hugo"))).containsExactlyInAnyOrder(this.dune.getIsbn(),
+                                                                     this.miserables.getIsbn());
+    }
+    
+    @Test
+    void search_shouldOnlyReturnTheBooksContainingTheWholeTerm() {
+        // "her" and "ert" are trigrams of "Frank Herbert" but "herx" is not a substring
+        assertThat(search(filter(null,
+                                 null,
+                                 "herx"))).isEmpty();
+    }
+    
+    @Test
+    void search_withShortTerm_shouldScanTheDocuments() {
+        assertThat(search(filter(null,
+                                 "du",
+                                 null))).containsExactly(this.dune.getIsbn());
+    }
+    
+    @Test
+    void search_withBlankFilter_shouldReturnNothing() {
+        assertThat(search(filter(" ",
+                                 "",
+                                 null))).isEmpty();
+    }
+    
+    @Test
+    void onBookChanged_shouldFollowTheUpdatesAndDeletions() {
+        BookSummaryDto duneMessiah = new BookSummaryDto(this.dune.getIsbn(),
+                                                        "Dune Messiah",
+                                                        "description",
+                                                        "Frank Herbert",
+                                                        "url1",
+                                                        0L);
+        this.bookSearchIndex.onBookChanged(BookChangedEvent.updated(this.dune,
+                                                                    duneMessiah));
+        assertThat(search(filter(null,
+                                 "messiah",
+                                 null))).containsExactly(this.dune.getIsbn());
+        
+        this.bookSearchIndex.onBookChanged(BookChangedEvent.deleted(duneMessiah));
+        assertThat(search(filter(null,
+                                 "dune",
+                                 null))).isEmpty();
+    }
+    
+    @Test
+    void search_shouldRankTheExactIsbnFirstThenTheTitlesStartingWithTheTerm() {
+        BookSummaryDto prelude = new BookSummaryDto("978-0553593716",
+                                                    "Prelude to Dune",
+                                                    "description",
+                                                    "Brian Herbert",
+                                                    "url3",
+                                                    0L);
+        this.bookSearchIndex.onBookChanged(BookChangedEvent.created(prelude));
+        
+        assertThat(search(filter(null,
+                                 "dune",
+                                 null))).containsExactly(this.dune.getIsbn(),
+                                                         prelude.getIsbn());
+        assertThat(search(filter(prelude.getIsbn(),
+                                 "dune",
+                                 null))).containsExactly(prelude.getIsbn(),
+                                                         this.dune.getIsbn());
+    }
+    
+    @Test
+    void search_shouldKeepOnlyTheBestMatchesAndCountThemAll() {
+        BookSearchResult result = this.bookSearchIndex.search(filter(null,
+                                                                     "e",
+                                                                     null),
+                                                              1);
+        
+        assertThat(result.isbns()).containsExactly(this.miserables.getIsbn());
+        assertThat(result.totalHits()).isEqualTo(2);
+    }
+    
+    @Test
+    void onBookChanged_shouldBumpTheGeneration() {
+        long generation = this.bookSearchIndex.generation();
+        
+        this.bookSearchIndex.onBookChanged(BookChangedEvent.deleted(this.dune));
+        
+        assertThat(this.bookSearchIndex.generation()).isGreaterThan(generation);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void rebuild_shouldKeepAnsweringAndReplayTheChangesMadeWhileStreaming() {
+        BookSummaryDto duneMessiah = new BookSummaryDto(this.dune.getIsbn(),
+                                                        "Dune Messiah",
+                                                        "description",
+                                                        "Frank Herbert",
+                                                        "url1",
+                                                        0L);
+        doAnswer(invocation -> {
+            Consumer<BookSummaryDto> consumer = invocation.getArgument(0);
+            consumer.accept(this.dune);
+            // The current index answers while the new one is built
+            assertThat(search(filter(null,
+                                     "miserables",
+                                     null))).containsExactly(this.miserables.getIsbn());
+            // Once Dune is streamed, it is renamed and Les Misérables, not streamed yet, deleted
+            this.bookSearchIndex.onBookChanged(BookChangedEvent.updated(this.dune,
+                                                                        duneMessiah));
+            this.bookSearchIndex.onBookChanged(BookChangedEvent.deleted(this.miserables));
+            consumer.accept(this.miserables);
+            return null;
+        })
+                .when(this.bookReadRepository)
+                .streamAllSummaries(any(Consumer.class));
+        
+        this.bookSearchIndex.refresh();
+        
+        assertThat(search(filter(null,
+                                 "messiah",
+                                 null))).containsExactly(this.dune.getIsbn());
+        assertThat(search(filter(null,
+                                 "miserables",
+                                 null))).isEmpty();
+    }
+}
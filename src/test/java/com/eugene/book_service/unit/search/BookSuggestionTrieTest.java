@@ -0,0 +1,154 @@
+package com.eugene.book_service.unit.search;
+
+import com.eugene.book_service.dto.BookSummaryDto;
+import com.eugene.book_service.repository.BookReadRepository;
+import com.eugene.book_service.search.BookSuggestionTrie;
+import com.eugene.book_service.service.BookChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+class BookSuggestionTrieTest
+{
+    private final List<BookSummaryDto> books = List.of(book("isbn1",
+                                                            "Dune",
+                                                            "Frank Herbert"),
+                                                       book("isbn2",
+                                                            "Dune Messiah",
+                                                            "Frank Herbert"),
+                                                       book("isbn3",
+                                                            "Children of Dune",
+                                                            "Frank Herbert"),
+                                                       book("isbn4",
+                                                            "Frankenstein",
+                                                            "Mary Shelley"));
+    
+    @Mock
+    private BookReadRepository bookReadRepository;
+    @InjectMocks
+    private BookSuggestionTrie bookSuggestionTrie;
+    
+    private static BookSummaryDto book(
+            String isbn,
+            String title,
+            String author
+    ) {
+        return new BookSummaryDto(isbn,
+                                  title,
+                                  "description",
+                                  author,
+                                  "url" + isbn,
+                                  0L);
+    }
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void buildTrie() {
+        doAnswer(invocation -> {
+            Consumer<BookSummaryDto> consumer = invocation.getArgument(0);
+            this.books.forEach(consumer);
+            return null;
+        })
+                .when(this.bookReadRepository)
+                .streamAllSummaries(any(Consumer.class));
+        
+        this.bookSuggestionTrie.rebuild();
+    }
+    
+    @Test
+    void rebuild_shouldIndexTheDistinctTitlesAndAuthors() {
+        assertThat(this.bookSuggestionTrie.size()).isEqualTo(6);
+    }
+    
+    @Test
+    void complete_shouldReturnTheMostSharedEntriesFirst() {
+        assertThat(this.bookSuggestionTrie.complete("FRA",
+                                                    10)).containsExactly("Frank Herbert",
+                                                                         "Frankenstein");
+    }
+    
+    @Test
+    void complete_shouldStopAtTheLimit() {
+        assertThat(this.bookSuggestionTrie.complete("dune",
+                                                    1)).hasSize(1);
+        assertThat(this.bookSuggestionTrie.complete("dune",
+                                                    10)).containsExactlyInAnyOrder("Dune",
+                                                                                   "Dune Messiah");
+    }
+    
+    @Test
+    void complete_withUnknownPrefix_shouldReturnNothing() {
+        assertThat(this.bookSuggestionTrie.complete("dunx",
+                                                    10)).isEmpty();
+        assertThat(this.bookSuggestionTrie.complete(" ",
+                                                    10)).isEmpty();
+    }
+    
+    @Test
+    void onBookChanged_shouldFollowTheUpdatesAndDeletions() {
+        BookSummaryDto frankenstein = this.books.get(3);
+        BookSummaryDto modernPrometheus = book("isbn4",
+                                               "The Modern Prometheus",
+                                               "Mary Shelley");
+        
+        this.bookSuggestionTrie.onBookChanged(BookChangedEvent.updated(frankenstein,
+                                                                       modernPrometheus));
+        assertThat(this.bookSuggestionTrie.complete("fra",
+                                                    10)).containsExactly("Frank Herbert");
+        assertThat(this.bookSuggestionTrie.complete("the m",
+                                                    10)).containsExactly("The Modern Prometheus");
+        
+        this.bookSuggestionTrie.onBookChanged(BookChangedEvent.deleted(this.books.get(1)));
+        assertThat(this.bookSuggestionTrie.complete("dune",
+                                                    10)).containsExactly("Dune");
+        assertThat(this.bookSuggestionTrie.size()).isEqualTo(5);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void rebuild_shouldReplayTheChangesMadeWhileStreaming() {
+        BookSummaryDto dune = this.books.get(0);
+        BookSummaryDto duneSaga = book("isbn1",
+                                       "Dune Saga",
+                                       "Frank Herbert");
+        doAnswer(invocation -> {
+            Consumer<BookSummaryDto> consumer = invocation.getArgument(0);
+            consumer.accept(dune);
+            // Once the book 1 is streamed, it is renamed and the book 4, not streamed yet, deleted
+            this.bookSuggestionTrie.onBookChanged(BookChangedEvent.updated(dune,
+                                                                           duneSaga));
+            this.bookSuggestionTrie.onBookChanged(BookChangedEvent.deleted(this.books.get(3)));
+            this.books
+                    .subList(1,
+                             4)
+                    .forEach(consumer);
+            return null;
+        })
+                .when(this.bookReadRepository)
+                .streamAllSummaries(any(Consumer.class));
+        
+        this.bookSuggestionTrie.rebuild();
+        
+        assertThat(this.bookSuggestionTrie.complete("dune",
+                                                    10)).containsExactlyInAnyOrder("Dune Saga",
+                                                                                   "Dune Messiah");
+        assertThat(this.bookSuggestionTrie.complete("fra",
+                                                    10)).containsExactly("Frank Herbert");
+        assertThat(this.bookSuggestionTrie.complete("mary",
+                                                    10)).isEmpty();
+        assertThat(this.bookSuggestionTrie.size()).isEqualTo(4);
+    }
+}